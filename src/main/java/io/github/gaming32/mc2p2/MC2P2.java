@@ -1,16 +1,32 @@
 package io.github.gaming32.mc2p2;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.mojang.brigadier.arguments.StringArgumentType;
+import com.mojang.brigadier.builder.RequiredArgumentBuilder;
 import com.mojang.brigadier.context.CommandContext;
 import com.mojang.brigadier.exceptions.CommandSyntaxException;
+import com.mojang.brigadier.exceptions.DynamicCommandExceptionType;
 import com.mojang.logging.LogUtils;
+import io.github.gaming32.mc2p2.compile.BspCache;
+import io.github.gaming32.mc2p2.compile.CompileJob;
+import io.github.gaming32.mc2p2.compile.CompileProfile;
+import io.github.gaming32.mc2p2.compile.CompileProgressBar;
+import io.github.gaming32.mc2p2.compile.CompileScheduler;
+import io.github.gaming32.mc2p2.generator.BrushDecomposer;
+import io.github.gaming32.mc2p2.generator.ChunkPrefetch;
+import io.github.gaming32.mc2p2.generator.GeneratorOptions;
+import io.github.gaming32.mc2p2.generator.Issue;
 import io.github.gaming32.mc2p2.generator.IssueConsumer;
 import io.github.gaming32.mc2p2.generator.MapGenerator;
+import io.github.gaming32.mc2p2.generator.SnapshotCapture;
+import io.github.gaming32.mc2p2.generator.WorldSnapshot;
 import io.github.gaming32.mc2p2.network.ClearIssueMarkersPayload;
 import io.github.gaming32.mc2p2.network.IssueMarkersPayload;
 import io.github.gaming32.mc2p2.steam.SteamGames;
 import io.github.gaming32.mc2p2.steam.SteamUtil;
+import io.github.gaming32.mc2p2.util.TickScheduler;
 import io.github.gaming32.mc2p2.vmf.SourceMap;
+import io.github.gaming32.mc2p2.vmf.VmfFile;
 import net.fabricmc.api.ModInitializer;
 import net.fabricmc.fabric.api.command.v2.CommandRegistrationCallback;
 import net.fabricmc.fabric.api.networking.v1.PacketSender;
@@ -18,28 +34,34 @@ import net.fabricmc.fabric.api.networking.v1.ServerPlayNetworking;
 import net.minecraft.ChatFormatting;
 import net.minecraft.Optionull;
 import net.minecraft.commands.CommandSourceStack;
+import net.minecraft.commands.SharedSuggestionProvider;
 import net.minecraft.commands.arguments.coordinates.BlockPosArgument;
 import net.minecraft.core.BlockPos;
 import net.minecraft.network.chat.ClickEvent;
 import net.minecraft.network.chat.Component;
 import net.minecraft.network.chat.HoverEvent;
 import net.minecraft.network.chat.MutableComponent;
+import net.minecraft.server.MinecraftServer;
 import net.minecraft.server.level.ServerLevel;
+import net.minecraft.server.level.ServerPlayer;
 import net.minecraft.world.level.levelgen.structure.BoundingBox;
-import net.platinumdigitalgroup.jvdf.VDFWriter;
 import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 
 import java.io.IOException;
 import java.io.UncheckedIOException;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
 import java.util.concurrent.Executor;
-import java.util.function.Consumer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import static net.minecraft.commands.Commands.argument;
 import static net.minecraft.commands.Commands.literal;
@@ -47,17 +69,53 @@ import static net.minecraft.commands.Commands.literal;
 public class MC2P2 implements ModInitializer {
     public static final Logger LOGGER = LogUtils.getLogger();
 
+    private static final DynamicCommandExceptionType UNKNOWN_DECOMPOSER = new DynamicCommandExceptionType(
+        name -> Component.translatable("mc2p2.command.unknown_decomposer", name)
+    );
+
+    private static final DynamicCommandExceptionType UNKNOWN_PROFILE = new DynamicCommandExceptionType(
+        name -> Component.translatable("mc2p2.command.unknown_profile", name)
+    );
+
+    private static final ExecutorService GENERATOR_EXECUTOR = Executors.newSingleThreadExecutor(
+        new ThreadFactoryBuilder().setNameFormat("MC2P2 Generator").setDaemon(true).build()
+    );
+
     @Override
     public void onInitialize() {
         LOGGER.info("Steam location: {}", SteamUtil.STEAM_DIR);
         LOGGER.info("Portal 2 location: {}", SteamGames.PORTAL_2_PATH);
 
+        TickScheduler.init();
+        CompileScheduler.init();
+
         CommandRegistrationCallback.EVENT.register((dispatcher, registryAccess, environment) -> {
             dispatcher.register(literal("mc2p2")
+                .then(literal("jobs")
+                    .executes(MC2P2::listJobs)
+                )
                 .then(argument("from", BlockPosArgument.blockPos())
                     .then(argument("to", BlockPosArgument.blockPos())
                         .then(argument("name", StringArgumentType.word())
-                            .executes(MC2P2::generateMap)
+                            .executes(context -> generateMap(context, GeneratorOptions.DEFAULT, CompileProfile.DEFAULT))
+                            .then(literal("decomposer").then(decomposerArgument()
+                                .executes(context -> generateMap(
+                                    context, GeneratorOptions.DEFAULT.withDecomposer(getDecomposer(context)), CompileProfile.DEFAULT
+                                ))
+                                .then(literal("profile").then(profileArgument()
+                                    .executes(context -> generateMap(
+                                        context, GeneratorOptions.DEFAULT.withDecomposer(getDecomposer(context)), getProfile(context)
+                                    ))
+                                ))
+                            ))
+                            .then(literal("profile").then(profileArgument()
+                                .executes(context -> generateMap(context, GeneratorOptions.DEFAULT, getProfile(context)))
+                                .then(literal("decomposer").then(decomposerArgument()
+                                    .executes(context -> generateMap(
+                                        context, GeneratorOptions.DEFAULT.withDecomposer(getDecomposer(context)), getProfile(context)
+                                    ))
+                                ))
+                            ))
                         )
                     )
                 )
@@ -65,8 +123,67 @@ public class MC2P2 implements ModInitializer {
         });
     }
 
-    private static int generateMap(CommandContext<CommandSourceStack> context) throws CommandSyntaxException {
-        final PacketSender issueSender = Optionull.map(context.getSource().getPlayer(), ServerPlayNetworking::getSender);
+    private static int listJobs(CommandContext<CommandSourceStack> context) {
+        final CommandSourceStack source = context.getSource();
+        final List<CompileJob> jobs = CompileScheduler.jobs();
+        if (jobs.isEmpty()) {
+            source.sendSuccess(() -> Component.translatable("mc2p2.jobs.none"), false);
+            return 0;
+        }
+        final long now = System.nanoTime();
+        for (final CompileJob job : jobs) {
+            final long seconds = TimeUnit.NANOSECONDS.toSeconds(now - job.since());
+            final Component message = switch (job.state()) {
+                case QUEUED -> Component.translatable("mc2p2.jobs.queued", job.mapName(), seconds);
+                case RUNNING -> Component.translatable(
+                    "mc2p2.jobs.running", job.mapName(),
+                    Objects.requireNonNullElse(job.currentStep(), job.profile().steps().get(0).executable()),
+                    job.profile().getSerializedName(), seconds
+                );
+                case CANCELLED, FINISHED -> Component.translatable("mc2p2.jobs.stopping", job.mapName());
+            };
+            source.sendSuccess(() -> message, false);
+        }
+        return jobs.size();
+    }
+
+    private static RequiredArgumentBuilder<CommandSourceStack, String> decomposerArgument() {
+        return argument("decomposer", StringArgumentType.word())
+            .suggests((context, builder) -> SharedSuggestionProvider.suggest(
+                Arrays.stream(BrushDecomposer.values()).map(BrushDecomposer::getSerializedName), builder
+            ));
+    }
+
+    private static RequiredArgumentBuilder<CommandSourceStack, String> profileArgument() {
+        return argument("profile", StringArgumentType.word())
+            .suggests((context, builder) -> SharedSuggestionProvider.suggest(
+                Arrays.stream(CompileProfile.values()).map(CompileProfile::getSerializedName), builder
+            ));
+    }
+
+    private static BrushDecomposer getDecomposer(CommandContext<CommandSourceStack> context) throws CommandSyntaxException {
+        final String name = StringArgumentType.getString(context, "decomposer");
+        final BrushDecomposer result = BrushDecomposer.byName(name);
+        if (result == null) {
+            throw UNKNOWN_DECOMPOSER.create(name);
+        }
+        return result;
+    }
+
+    private static CompileProfile getProfile(CommandContext<CommandSourceStack> context) throws CommandSyntaxException {
+        final String name = StringArgumentType.getString(context, "profile");
+        final CompileProfile result = CompileProfile.byName(name);
+        if (result == null) {
+            throw UNKNOWN_PROFILE.create(name);
+        }
+        return result;
+    }
+
+    private static int generateMap(
+        CommandContext<CommandSourceStack> context, GeneratorOptions options, CompileProfile profile
+    ) throws CommandSyntaxException {
+        final CommandSourceStack source = context.getSource();
+        final PacketSender issueSender = Optionull.map(source.getPlayer(), ServerPlayNetworking::getSender);
         if (issueSender != null) {
             issueSender.sendPacket(ClearIssueMarkersPayload.INSTANCE);
         }
@@ -75,8 +192,65 @@ public class MC2P2 implements ModInitializer {
             BlockPosArgument.getLoadedBlockPos(context, "to")
         );
         final String mapName = StringArgumentType.getString(context, "name"); // TODO: Validation
-        context.getSource().sendSuccess(() -> Component.translatable("mc2p2.generate.starting"), false);
-        generateMap(mapName, context.getSource().getLevel(), mapArea, (level, message, blocks) -> {
+        final ServerLevel level = source.getLevel();
+        final MinecraftServer server = source.getServer();
+        final ChunkPrefetch prefetch = new ChunkPrefetch(level, mapArea);
+        source.sendSuccess(() -> Component.translatable("mc2p2.prefetch.starting", prefetch.chunkCount()), false);
+        TickScheduler.schedule(prefetch);
+        prefetch.future().thenCompose(v -> {
+            source.sendSuccess(() -> Component.translatable("mc2p2.capture.starting"), false);
+            final SnapshotCapture capture = new SnapshotCapture(level, mapArea, progress ->
+                source.sendSuccess(() -> Component.translatable("mc2p2.capture.progress", progress), false)
+            );
+            TickScheduler.schedule(capture);
+            return capture.future();
+        }).whenComplete((snapshot, t) -> prefetch.release()).thenCompose(snapshot -> {
+            source.sendSuccess(() -> Component.translatable("mc2p2.generate.starting"), false);
+            return generateMap(mapName, snapshot, options, createIssueConsumer(source, issueSender), server);
+        }).thenAcceptAsync(vmfDigest -> {
+            if (vmfDigest == null) return;
+            assert SteamGames.PORTAL_2_PATH != null;
+            final Path bspPath = SteamGames.PORTAL_2_PATH.resolve("portal2/maps/" + mapName + ".bsp");
+            if (CompileScheduler.isCompiling(mapName, profile, vmfDigest)) {
+                source.sendSuccess(() -> Component.translatable("mc2p2.compile.joined"), false);
+            } else {
+                // An older job would replace the BSP with one of a different VMF. It's cancelled before checking, since
+                // it could be deploying its BSP right now.
+                CompileScheduler.cancel(mapName);
+                if (BspCache.isDeployed(bspPath, BspCache.key(vmfDigest, profile))) {
+                    source.sendSuccess(() -> Component.translatable("mc2p2.compile.up_to_date"), false);
+                    CompileJob.launchGame(mapName);
+                    return;
+                }
+                source.sendSuccess(() -> Component.translatable("mc2p2.compile.starting"), false);
+            }
+            final CompileJob job = CompileScheduler.submit(mapName, profile, vmfDigest, true, server, t -> {
+                if (t == null) {
+                    LOGGER.info("Compiled map successfully");
+                    source.sendSuccess(() -> Component.translatable("mc2p2.compile.success"), false);
+                } else if (t instanceof CancellationException) {
+                    source.sendSuccess(() -> Component.translatable("mc2p2.compile.superseded"), false);
+                } else {
+                    LOGGER.error("Failed to compile map", t);
+                    source.sendFailure(Component.translatable("mc2p2.compile.error", t.getLocalizedMessage()));
+                }
+            });
+            final ServerPlayer player = source.getPlayer();
+            if (job != null && player != null) {
+                TickScheduler.schedule(new CompileProgressBar(job, player));
+            }
+        }, server).exceptionallyAsync(t -> {
+            if (t instanceof CompletionException && t.getCause() != null) {
+                t = t.getCause();
+            }
+            source.sendFailure(Component.translatable("mc2p2.generate.error", t.getLocalizedMessage()));
+            return null;
+        }, server);
+        return 1;
+    }
+
+    private static IssueConsumer createIssueConsumer(CommandSourceStack source, @Nullable PacketSender issueSender) {
+        return (level, message, blocks) -> {
             final MutableComponent component = Component.translatable("mc2p2.issue.level." + level.getSerializedName(), message);
             component.withStyle(level.color);
             if (!blocks.isEmpty()) {
@@ -95,103 +269,66 @@ public class MC2P2 implements ModInitializer {
                     )
                 );
             }
-            context.getSource().sendSystemMessage(component);
+            source.sendSystemMessage(component);
             if (issueSender != null) {
                 issueSender.sendPacket(new IssueMarkersPayload(level, message, blocks));
             }
-        });
-        context.getSource().sendSuccess(() -> Component.translatable("mc2p2.compile.starting"), false);
-        compileMap(mapName, true, context.getSource().getServer(), t -> {
-            if (t == null) {
-                LOGGER.info("Compiled map successfully");
-                context.getSource().sendSuccess(() -> Component.translatable("mc2p2.compile.success"), false);
-            } else {
-                LOGGER.error("Failed to compile map", t);
-                context.getSource().sendFailure(Component.translatable("mc2p2.compile.error", t.getLocalizedMessage()));
-            }
-        });
-        return 1;
+        };
     }
 
-    public static void generateMap(String mapName, ServerLevel level, BoundingBox area, IssueConsumer issueConsumer) {
-        if (SteamGames.PORTAL_2_PATH == null) return;
-        final Path mapPath = SteamGames.PORTAL_2_PATH.resolve("sdk_content/maps/" + mapName + ".vmf");
-        final SourceMap map;
-        try {
-            map = new MapGenerator(level, area, issueConsumer).generate();
-        } catch (Throwable t) {
-            LOGGER.error("Failed to generate map", t);
-            throw t;
-        }
-        try {
-            Files.writeString(mapPath, new VDFWriter().write(map.toVmf(), true), StandardCharsets.UTF_8);
-        } catch (IOException e) {
-            LOGGER.error("Failed to write map", e);
-        }
-    }
-
-    public static void compileMap(
-        String mapName, boolean run, Executor serverExecutor, Consumer<@Nullable Throwable> onFinishCompile
+    /**
+     * Generates and writes the map on {@link #GENERATOR_EXECUTOR}. Issues are collected while generating, and are
+     * reported on {@code serverExecutor} once the map has been written.
+     * @return A future that completes with the SHA-256 of the VMF if the map can be compiled, or {@code null} if it
+     * can't. Maps that leak are still written along with a pointfile of the leak, so they can be inspected in Hammer.
+     */
+    public static CompletableFuture<@Nullable String> generateMap(
+        String mapName, WorldSnapshot snapshot, GeneratorOptions options, IssueConsumer issueConsumer,
+        Executor serverExecutor
     ) {
-        if (SteamGames.PORTAL_2_PATH == null) return;
+        if (SteamGames.PORTAL_2_PATH == null) {
+            return CompletableFuture.completedFuture(null);
+        }
         final Path mapPath = SteamGames.PORTAL_2_PATH.resolve("sdk_content/maps/" + mapName + ".vmf");
-        final Path bspPath = mapPath.resolveSibling(mapName + ".bsp");
-        final Path targetPath = SteamGames.PORTAL_2_PATH.resolve("portal2/maps").resolve(bspPath.getFileName());
-        runCompilerStep("vbsp", mapPath)
-            .thenCompose(p -> runCompilerStep("vvis", mapPath))
-            .thenCompose(p -> runCompilerStep("vrad", mapPath))
-            .thenRunAsync(() -> {
-                try {
-                    Files.copy(bspPath, targetPath, StandardCopyOption.REPLACE_EXISTING);
-                } catch (IOException e) {
-                    throw new UncheckedIOException(e);
-                }
-            })
-            .thenRunAsync(() -> {
-                onFinishCompile.accept(null);
-                if (run) {
-                    try {
-                        new ProcessBuilder(
-                            SteamGames.PORTAL_2_PATH.resolve("portal2.exe").toString(),
-                            "-dev",
-                            "-game", SteamGames.PORTAL_2_PATH.resolve("portal2").toString(),
-                            "+map", mapName,
-                            "+sv_lan", "1"
-                        ).start();
-                    } catch (IOException e) {
-                        LOGGER.error("Failed to start game", e);
-                    }
-                }
-            }, serverExecutor)
-            .exceptionallyAsync(t -> {
-                if (t instanceof CompletionException && t.getCause() != null) {
-                    t = t.getCause();
-                }
-                onFinishCompile.accept(t);
-                return null;
-            }, serverExecutor);
+        return CompletableFuture.supplyAsync(() -> {
+            final List<Issue> issues = new ArrayList<>();
+            final MapGenerator generator = new MapGenerator(
+                snapshot, options, (level, message, blocks) -> issues.add(new Issue(level, message, blocks))
+            );
+            final SourceMap map;
+            try {
+                map = generator.generate();
+            } catch (Throwable t) {
+                LOGGER.error("Failed to generate map", t);
+                throw t;
+            }
+            final VmfFile.Written written;
+            try {
+                written = VmfFile.write(map, mapPath);
+            } catch (IOException e) {
+                LOGGER.error("Failed to write map", e);
+                throw new UncheckedIOException(e);
+            } catch (UncheckedIOException e) {
+                LOGGER.error("Failed to write map", e);
+                throw e;
+            }
+            if (!written.changed()) {
+                LOGGER.info("{} is unchanged, so it wasn't rewritten", mapPath.getFileName());
+            }
+            try {
+                VmfFile.writePointfile(mapPath, generator.getLeakPath());
+            } catch (IOException e) {
+                LOGGER.warn("Failed to write pointfile", e);
+            }
+            return new GeneratedMap(issues, generator.isLeaking(), written.digest());
+        }, GENERATOR_EXECUTOR).thenApplyAsync(generated -> {
+            for (final Issue issue : generated.issues) {
+                issue.report(issueConsumer);
+            }
+            return generated.leaking ? null : generated.vmfDigest;
+        }, serverExecutor);
     }
 
-    private static CompletableFuture<Void> runCompilerStep(String executable, Path mapPath) {
-        assert SteamGames.PORTAL_2_PATH != null;
-        LOGGER.info("Starting {}...", executable);
-        try {
-            return new ProcessBuilder(
-                SteamGames.PORTAL_2_PATH.resolve("bin/" + executable + ".exe").toString(),
-                "-game", SteamGames.PORTAL_2_PATH.resolve("portal2").toString(),
-                mapPath.toString()
-            )
-                .inheritIO()
-                .start()
-                .onExit()
-                .thenAccept(process -> {
-                    if (process.exitValue() != 0) {
-                        throw new IllegalStateException(executable + " failed with exit code " + process.exitValue());
-                    }
-                });
-        } catch (IOException e) {
-            LOGGER.error("Failed to run compile step", e);
-            return CompletableFuture.failedFuture(e);
-        }
+    private record GeneratedMap(List<Issue> issues, boolean leaking, String vmfDigest) {
     }
 }
@@ -0,0 +1,135 @@
+package io.github.gaming32.mc2p2.compile;
+
+import io.github.gaming32.mc2p2.MC2P2;
+import io.github.gaming32.mc2p2.util.MC2P2Util;
+import net.fabricmc.loader.api.FabricLoader;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Compiled BSPs stored by the SHA-256 of the VMF they were compiled from and the steps of the profile they were compiled
+ * with, so that compiling an unchanged map again just deploys the stored BSP. Files are touched whenever they're used,
+ * and the least recently used ones are deleted once the cache grows past {@link #MAX_SIZE}.
+ */
+public class BspCache {
+    /**
+     * The most bytes of BSPs that are kept. Defaults to 2 GiB.
+     */
+    public static final long MAX_SIZE = Long.getLong("mc2p2.bspCacheSize", 2L << 30);
+
+    private static final Path DIRECTORY = FabricLoader.getInstance().getGameDir().resolve("mc2p2/bsp_cache");
+    private static final String EXTENSION = ".bsp";
+
+    /**
+     * @param vmfDigest The hex SHA-256 of the VMF
+     * @return The cache key of compiling a VMF with {@code profile}
+     */
+    public static String key(String vmfDigest, CompileProfile profile) {
+        final MessageDigest digest = MC2P2Util.createSha256();
+        digest.update(vmfDigest.getBytes(StandardCharsets.UTF_8));
+        for (final CompileStep step : profile.steps()) {
+            digest.update((byte)'\n');
+            digest.update(step.executable().getBytes(StandardCharsets.UTF_8));
+            for (final String argument : step.arguments()) {
+                digest.update((byte)0);
+                digest.update(argument.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * @return Whether the BSP at {@code target} exists and was deployed from {@code key}
+     */
+    public static boolean isDeployed(Path target, String key) {
+        final Path keyPath = deployedKeyPath(target);
+        try {
+            return Files.isRegularFile(target) && Files.isRegularFile(keyPath)
+                && Files.readString(keyPath, StandardCharsets.UTF_8).strip().equals(key);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Copies a compiled BSP to {@code target}, recording the key it was compiled from for {@link #isDeployed}.
+     */
+    public static void deployCompiled(String key, Path bsp, Path target) throws IOException {
+        final Path keyPath = deployedKeyPath(target);
+        Files.deleteIfExists(keyPath);
+        Files.copy(bsp, target, StandardCopyOption.REPLACE_EXISTING);
+        Files.writeString(keyPath, key, StandardCharsets.UTF_8);
+    }
+
+    private static Path deployedKeyPath(Path target) {
+        return target.resolveSibling(target.getFileName() + ".sha256");
+    }
+
+    /**
+     * Copies the BSP stored under {@code key} to {@code target}, replacing it.
+     * @return Whether there was a BSP to copy
+     */
+    public static synchronized boolean deploy(String key, Path target) throws IOException {
+        final Path cached = DIRECTORY.resolve(key + EXTENSION);
+        if (!Files.isRegularFile(cached)) {
+            return false;
+        }
+        deployCompiled(key, cached, target);
+        Files.setLastModifiedTime(cached, FileTime.fromMillis(System.currentTimeMillis()));
+        return true;
+    }
+
+    /**
+     * Stores a copy of {@code bsp} under {@code key}, then evicts BSPs until the cache fits in {@link #MAX_SIZE}.
+     */
+    public static synchronized void store(String key, Path bsp) throws IOException {
+        Files.createDirectories(DIRECTORY);
+        final Path tempPath = Files.createTempFile(DIRECTORY, key, ".tmp");
+        try {
+            Files.copy(bsp, tempPath, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(
+                tempPath, DIRECTORY.resolve(key + EXTENSION),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE
+            );
+        } finally {
+            Files.deleteIfExists(tempPath);
+        }
+        evict();
+    }
+
+    private static void evict() throws IOException {
+        final List<CachedBsp> entries = new ArrayList<>();
+        long totalSize = 0;
+        try (Stream<Path> paths = Files.list(DIRECTORY)) {
+            for (final Path path : (Iterable<Path>)paths::iterator) {
+                if (!path.getFileName().toString().endsWith(EXTENSION)) continue;
+                final BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                entries.add(new CachedBsp(path, attributes.size(), attributes.lastModifiedTime()));
+                totalSize += attributes.size();
+            }
+        }
+        if (totalSize <= MAX_SIZE) return;
+        entries.sort(Comparator.comparing(CachedBsp::lastUsed));
+        for (final CachedBsp entry : entries) {
+            if (totalSize <= MAX_SIZE) break;
+            MC2P2.LOGGER.info("Evicting {} from the BSP cache", entry.path.getFileName());
+            Files.deleteIfExists(entry.path);
+            totalSize -= entry.size;
+        }
+    }
+
+    private record CachedBsp(Path path, long size, FileTime lastUsed) {
+    }
+}
@@ -0,0 +1,57 @@
+package io.github.gaming32.mc2p2.compile;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The most recent results of each {@link CompileStep}, used to estimate how long the next run will take.
+ */
+public class CompileHistory {
+    /**
+     * How many results are kept per step.
+     */
+    public static final int SIZE = 16;
+
+    private static final Map<CompileStep, Deque<StepResult>> HISTORY = new HashMap<>();
+
+    public static synchronized void record(StepResult result) {
+        final Deque<StepResult> results = HISTORY.computeIfAbsent(result.step(), k -> new ArrayDeque<>(SIZE));
+        if (results.size() == SIZE) {
+            results.removeFirst();
+        }
+        results.addLast(result);
+    }
+
+    /**
+     * @return The results of {@code step}, oldest first
+     */
+    public static synchronized List<StepResult> get(CompileStep step) {
+        final Deque<StepResult> results = HISTORY.get(step);
+        return results != null ? List.copyOf(results) : List.of();
+    }
+
+    /**
+     * Estimates from the median time per VMF byte of the step's successful runs, since the same map is usually compiled
+     * over and over with small changes.
+     * @return The estimated run time in nanoseconds, or -1 if the step hasn't succeeded before
+     */
+    public static synchronized long estimate(CompileStep step, long vmfSize) {
+        final Deque<StepResult> results = HISTORY.get(step);
+        if (results == null) {
+            return -1;
+        }
+        final double[] nanosPerByte = results.stream()
+            .filter(StepResult::succeeded)
+            .mapToDouble(result -> (double)result.wallNanos() / Math.max(1, result.vmfSize()))
+            .toArray();
+        if (nanosPerByte.length == 0) {
+            return -1;
+        }
+        Arrays.sort(nanosPerByte);
+        return (long)(nanosPerByte[nanosPerByte.length / 2] * Math.max(1, vmfSize));
+    }
+}
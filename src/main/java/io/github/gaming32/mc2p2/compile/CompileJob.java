@@ -0,0 +1,407 @@
+package io.github.gaming32.mc2p2.compile;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.github.gaming32.mc2p2.MC2P2;
+import io.github.gaming32.mc2p2.steam.SteamGames;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * One run of a map through the compilers of a {@link CompileProfile}, managed by {@link CompileScheduler}.
+ */
+public final class CompileJob {
+    private static final long MEMORY_SAMPLE_MILLIS = 500;
+
+    private static final ExecutorService OUTPUT_EXECUTOR = Executors.newCachedThreadPool(
+        new ThreadFactoryBuilder().setNameFormat("MC2P2 Compiler Output %d").setDaemon(true).build()
+    );
+    private static final ScheduledExecutorService MEMORY_MONITOR = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder().setNameFormat("MC2P2 Compiler Memory").setDaemon(true).build()
+    );
+
+    private final String mapName;
+    private final CompileProfile profile;
+    private final String vmfDigest;
+    private final Executor serverExecutor;
+    private boolean run;
+    private final List<Consumer<@Nullable Throwable>> onFinish = new ArrayList<>();
+    private final long submitTime = System.nanoTime();
+
+    private volatile State state = State.QUEUED;
+    private volatile long startTime;
+    @Nullable
+    private volatile String currentStep;
+    @Nullable
+    private volatile String currentPhase;
+    private volatile float phaseProgress = -1;
+    private volatile int completedSteps;
+    private volatile long stepStartTime;
+    /**
+     * The estimated run time of each step in nanoseconds, or -1 for steps that haven't succeeded before
+     */
+    private volatile long @Nullable [] estimates;
+    @Nullable
+    private Process process;
+    private final List<StepResult> results = new ArrayList<>();
+
+    CompileJob(
+        String mapName, CompileProfile profile, String vmfDigest, boolean run, Executor serverExecutor,
+        Consumer<@Nullable Throwable> onFinish
+    ) {
+        this.mapName = mapName;
+        this.profile = profile;
+        this.vmfDigest = vmfDigest;
+        this.serverExecutor = serverExecutor;
+        this.run = run;
+        this.onFinish.add(onFinish);
+    }
+
+    public String mapName() {
+        return mapName;
+    }
+
+    public CompileProfile profile() {
+        return profile;
+    }
+
+    /**
+     * @return The hex SHA-256 of the VMF being compiled
+     */
+    public String vmfDigest() {
+        return vmfDigest;
+    }
+
+    public State state() {
+        return state;
+    }
+
+    /**
+     * @return The {@link System#nanoTime()} the job was started at if it's running, or was submitted at if it's queued
+     */
+    public long since() {
+        return state == State.QUEUED ? submitTime : startTime;
+    }
+
+    @Nullable
+    public String currentStep() {
+        return currentStep;
+    }
+
+    /**
+     * @return The phase of the current step that the compiler last reported progress for
+     */
+    @Nullable
+    public String currentPhase() {
+        return currentPhase;
+    }
+
+    /**
+     * @return How far along the job is from 0 to 1. This is estimated from previous runs of its steps when they all have
+     * one, and otherwise from the steps completed and the progress the compiler reports.
+     */
+    public float progress() {
+        final State state = this.state;
+        if (state != State.RUNNING) {
+            return state == State.QUEUED ? 0f : 1f;
+        }
+        final long remaining = remainingNanos();
+        if (remaining >= 0) {
+            final long elapsed = Math.max(1, System.nanoTime() - startTime);
+            return Math.min((float)((double)elapsed / (elapsed + remaining)), 0.99f);
+        }
+        final float phase = Math.max(phaseProgress, 0f);
+        return Math.min((completedSteps + phase) / profile.steps().size(), 1f);
+    }
+
+    /**
+     * @return The estimated time left in nanoseconds, or -1 if it can't be estimated
+     */
+    public long remainingNanos() {
+        final long[] estimates = this.estimates;
+        if (state != State.RUNNING || estimates == null) {
+            return -1;
+        }
+        final int completed = completedSteps;
+        long remaining = 0;
+        for (int i = completed; i < estimates.length; i++) {
+            if (estimates[i] < 0) {
+                return -1;
+            }
+            remaining += estimates[i];
+        }
+        if (completed < estimates.length) {
+            remaining -= Math.min(System.nanoTime() - stepStartTime, estimates[completed]);
+        }
+        return remaining;
+    }
+
+    /**
+     * @return The results of the steps that have finished so far
+     */
+    public synchronized List<StepResult> results() {
+        return List.copyOf(results);
+    }
+
+    CompletableFuture<Void> start() {
+        assert SteamGames.PORTAL_2_PATH != null;
+        synchronized (this) {
+            if (state != State.QUEUED) {
+                return CompletableFuture.failedFuture(new CancellationException(mapName + " was superseded"));
+            }
+            state = State.RUNNING;
+            startTime = System.nanoTime();
+        }
+        final Path mapPath = SteamGames.PORTAL_2_PATH.resolve("sdk_content/maps/" + mapName + ".vmf");
+        final Path bspPath = mapPath.resolveSibling(mapName + ".bsp");
+        final Path targetPath = SteamGames.PORTAL_2_PATH.resolve("portal2/maps").resolve(bspPath.getFileName());
+        long vmfSize;
+        try {
+            vmfSize = Files.size(mapPath);
+        } catch (IOException e) {
+            vmfSize = 0;
+        }
+        final List<CompileStep> steps = profile.steps();
+        final long[] estimates = new long[steps.size()];
+        for (int i = 0; i < estimates.length; i++) {
+            estimates[i] = CompileHistory.estimate(steps.get(i), vmfSize);
+        }
+        this.estimates = estimates;
+        final long size = vmfSize;
+        final String key = BspCache.key(vmfDigest, profile);
+        return CompletableFuture.supplyAsync(() -> deployCached(key, targetPath)).thenCompose(deployed -> {
+            if (deployed) {
+                return CompletableFuture.completedFuture(null);
+            }
+            CompletableFuture<Void> result = CompletableFuture.completedFuture(null);
+            for (int i = 0; i < steps.size(); i++) {
+                final int index = i;
+                result = result.thenCompose(v -> runStep(steps.get(index), index, mapPath, size));
+            }
+            return result.thenRunAsync(() -> {
+                // A superseded job may have compiled a newer VMF than its key says, and would overwrite the BSP of
+                // the job that superseded it. cancel() waits for this lock, so once it returns nothing gets deployed.
+                synchronized (this) {
+                    if (state == State.CANCELLED) {
+                        throw new CancellationException(mapName + " was superseded");
+                    }
+                    try {
+                        BspCache.store(key, bspPath);
+                    } catch (IOException e) {
+                        MC2P2.LOGGER.warn("Failed to store {} in the BSP cache", mapName, e);
+                    }
+                    try {
+                        BspCache.deployCompiled(key, bspPath, targetPath);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            });
+        });
+    }
+
+    private boolean deployCached(String key, Path targetPath) {
+        // Under the lock like deploying a compiled BSP, so nothing is deployed from the cache after cancel() returns
+        synchronized (this) {
+            if (state == State.CANCELLED) {
+                throw new CancellationException(mapName + " was superseded");
+            }
+            try {
+                if (BspCache.deploy(key, targetPath)) {
+                    MC2P2.LOGGER.info("Deployed cached BSP {} for {} without compiling", key, mapName);
+                    return true;
+                }
+            } catch (IOException e) {
+                MC2P2.LOGGER.warn("Failed to deploy cached BSP for {}, so compiling it instead", mapName, e);
+            }
+            return false;
+        }
+    }
+
+    private CompletableFuture<Void> runStep(CompileStep step, int index, Path mapPath, long vmfSize) {
+        assert SteamGames.PORTAL_2_PATH != null;
+        final Process stepProcess;
+        synchronized (this) {
+            if (state == State.CANCELLED) {
+                return CompletableFuture.failedFuture(new CancellationException(mapName + " was superseded"));
+            }
+            MC2P2.LOGGER.info("Starting {} for {} with {}...", step.executable(), mapName, step.arguments());
+            currentStep = step.executable();
+            currentPhase = null;
+            phaseProgress = -1;
+            final List<String> command = new ArrayList<>();
+            command.add(SteamGames.PORTAL_2_PATH.resolve("bin/" + step.executable() + ".exe").toString());
+            command.addAll(step.arguments());
+            command.add("-game");
+            command.add(SteamGames.PORTAL_2_PATH.resolve("portal2").toString());
+            command.add(mapPath.toString());
+            try {
+                stepProcess = new ProcessBuilder(command)
+                    .redirectInput(ProcessBuilder.Redirect.INHERIT)
+                    .start();
+            } catch (IOException e) {
+                MC2P2.LOGGER.error("Failed to run compile step", e);
+                return CompletableFuture.failedFuture(e);
+            }
+            process = stepProcess;
+            stepStartTime = System.nanoTime();
+        }
+        final long stepStart = stepStartTime;
+        final CompilerOutput output = new CompilerOutput(step.executable(), false, this::onPhaseProgress);
+        final CompilerOutput errorOutput = new CompilerOutput(step.executable(), true, null);
+        final CompletableFuture<Void> outputRead = CompletableFuture.allOf(
+            readOutput(step, output, stepProcess.getInputStream()),
+            readOutput(step, errorOutput, stepProcess.getErrorStream())
+        );
+        final AtomicLong peakMemory = new AtomicLong(-1);
+        final ScheduledFuture<?> memorySampling = MEMORY_MONITOR.scheduleAtFixedRate(
+            () -> peakMemory.accumulateAndGet(ProcessMemory.residentBytes(stepProcess.toHandle()), Math::max),
+            0, MEMORY_SAMPLE_MILLIS, TimeUnit.MILLISECONDS
+        );
+        return stepProcess.onExit()
+            .thenApply(p -> System.nanoTime())
+            .thenCombine(outputRead, (exitTime, v) -> exitTime)
+            .whenComplete((exitTime, t) -> memorySampling.cancel(false))
+            .thenAccept(exitTime -> {
+                if (state == State.CANCELLED) {
+                    throw new CancellationException(mapName + " was superseded");
+                }
+                final StepResult result = new StepResult(
+                    step, vmfSize, exitTime - stepStart, peakMemory.get(), stepProcess.exitValue(), output.counts()
+                );
+                recordResult(result);
+                if (!result.succeeded()) {
+                    throw new IllegalStateException(step.executable() + " failed with exit code " + result.exitCode());
+                }
+                completedSteps = index + 1;
+            });
+    }
+
+    private static CompletableFuture<Void> readOutput(CompileStep step, CompilerOutput output, InputStream in) {
+        return CompletableFuture.runAsync(() -> output.read(in), OUTPUT_EXECUTOR).exceptionally(t -> {
+            // The exit code still says whether the step worked
+            MC2P2.LOGGER.warn("Failed to read output of {}", step.executable(), t);
+            return null;
+        });
+    }
+
+    private void onPhaseProgress(String phase, float progress) {
+        currentPhase = phase;
+        phaseProgress = progress;
+    }
+
+    private void recordResult(StepResult result) {
+        synchronized (this) {
+            results.add(result);
+        }
+        CompileHistory.record(result);
+        MC2P2.LOGGER.info(
+            "{} for {} exited with code {} after {} ms, with a peak memory of {}",
+            result.step().executable(), mapName, result.exitCode(),
+            TimeUnit.NANOSECONDS.toMillis(result.wallNanos()),
+            result.peakMemory() >= 0 ? (result.peakMemory() >> 20) + " MiB" : "not measurable on this platform"
+        );
+    }
+
+    /**
+     * Stops the job, killing the running compiler along with anything it started. Queued jobs finish right away, and
+     * running jobs finish once the compiler has exited.
+     */
+    void cancel() {
+        final State previous;
+        synchronized (this) {
+            previous = state;
+            if (previous == State.FINISHED || previous == State.CANCELLED) return;
+            state = State.CANCELLED;
+            if (process != null && process.isAlive()) {
+                MC2P2.LOGGER.info("Killing {} for {}, since it was superseded", currentStep, mapName);
+                process.descendants().forEach(ProcessHandle::destroyForcibly);
+                process.destroyForcibly();
+            }
+        }
+        if (previous == State.QUEUED) {
+            finish(new CancellationException(mapName + " was superseded"));
+        }
+    }
+
+    /**
+     * Adds another request for the same compile to the job, so that it's told when the job finishes too.
+     * @return Whether the request was added, which it isn't if the job was cancelled or has finished
+     */
+    synchronized boolean join(boolean run, Consumer<@Nullable Throwable> onFinish) {
+        if (state == State.CANCELLED || state == State.FINISHED) {
+            return false;
+        }
+        this.run |= run;
+        this.onFinish.add(onFinish);
+        return true;
+    }
+
+    void finish(@Nullable Throwable t) {
+        final List<Consumer<@Nullable Throwable>> onFinish;
+        final boolean run;
+        synchronized (this) {
+            if (state == State.RUNNING) {
+                state = State.FINISHED;
+            } else if (t == null) {
+                // Superseded after the last compiler exited
+                t = new CancellationException(mapName + " was superseded");
+            }
+            process = null;
+            onFinish = List.copyOf(this.onFinish);
+            run = this.run;
+        }
+        final Throwable failure = t;
+        serverExecutor.execute(() -> {
+            for (final Consumer<@Nullable Throwable> callback : onFinish) {
+                callback.accept(failure);
+            }
+            if (failure == null && run) {
+                launchGame(mapName);
+            }
+        });
+    }
+
+    /**
+     * Starts Portal 2 on {@code mapName}, for when a compile finishes or the BSP in place is already up to date.
+     */
+    public static void launchGame(String mapName) {
+        assert SteamGames.PORTAL_2_PATH != null;
+        try {
+            new ProcessBuilder(
+                SteamGames.PORTAL_2_PATH.resolve("portal2.exe").toString(),
+                "-dev",
+                "-game", SteamGames.PORTAL_2_PATH.resolve("portal2").toString(),
+                "+map", mapName,
+                "+sv_lan", "1"
+            ).start();
+        } catch (IOException e) {
+            MC2P2.LOGGER.error("Failed to start game", e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "CompileJob[" + mapName + ", " + profile.getSerializedName() + ", " + state + "]";
+    }
+
+    public enum State {
+        QUEUED, RUNNING, CANCELLED, FINISHED
+    }
+}
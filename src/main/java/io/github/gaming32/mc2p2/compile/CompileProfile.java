@@ -0,0 +1,76 @@
+package io.github.gaming32.mc2p2.compile;
+
+import net.minecraft.util.StringRepresentable;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The compilers a map is run through, and how thoroughly.
+ */
+public enum CompileProfile implements StringRepresentable {
+    /**
+     * Only builds the geometry and a fast visibility pass, so the map loads without baked lighting. For checking layouts.
+     */
+    QUICK("quick", List.of(
+        CompileStep.of("vbsp"),
+        CompileStep.of("vvis", "-fast")
+    )),
+    /**
+     * Fast visibility and a single light bounce, which is enough to judge lighting roughly.
+     */
+    PREVIEW("preview", List.of(
+        CompileStep.of("vbsp"),
+        CompileStep.of("vvis", "-fast"),
+        CompileStep.of("vrad", "-fast", "-bounce", "1")
+    )),
+    /**
+     * Every compiler with its default settings.
+     */
+    DEFAULT("default", List.of(
+        CompileStep.of("vbsp"),
+        CompileStep.of("vvis"),
+        CompileStep.of("vrad")
+    )),
+    /**
+     * Full quality lighting for both HDR and LDR, with the cores split between the compiles that can run at once.
+     */
+    FINAL("final", List.of(
+        CompileStep.of("vbsp"),
+        CompileStep.of("vvis", "-threads", CompileScheduler.THREADS_PER_COMPILE),
+        CompileStep.of(
+            "vrad", "-final", "-both", "-StaticPropLighting", "-StaticPropPolys", "-textureshadows",
+            "-threads", CompileScheduler.THREADS_PER_COMPILE
+        )
+    ));
+
+    private final String name;
+    private final List<CompileStep> steps;
+
+    CompileProfile(String name, List<CompileStep> steps) {
+        this.name = name;
+        this.steps = steps;
+    }
+
+    public List<CompileStep> steps() {
+        return steps;
+    }
+
+    @NotNull
+    @Override
+    public String getSerializedName() {
+        return name;
+    }
+
+    @Nullable
+    public static CompileProfile byName(String name) {
+        for (final CompileProfile profile : values()) {
+            if (profile.name.equals(name.toLowerCase(Locale.ROOT))) {
+                return profile;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,62 @@
+package io.github.gaming32.mc2p2.compile;
+
+import io.github.gaming32.mc2p2.util.TickTask;
+import net.minecraft.network.chat.Component;
+import net.minecraft.server.level.ServerBossEvent;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.world.BossEvent;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shows the progress of a {@link CompileJob} to the player that requested it as a boss bar, until the job finishes.
+ */
+public final class CompileProgressBar implements TickTask {
+    private static final int UPDATE_INTERVAL = 10;
+
+    private final CompileJob job;
+    private final ServerBossEvent bossBar;
+    private int ticks;
+
+    public CompileProgressBar(CompileJob job, ServerPlayer player) {
+        this.job = job;
+        bossBar = new ServerBossEvent(getName(), BossEvent.BossBarColor.GREEN, BossEvent.BossBarOverlay.PROGRESS);
+        bossBar.setProgress(0f);
+        bossBar.addPlayer(player);
+    }
+
+    @Override
+    public boolean tick(long deadline) {
+        final CompileJob.State state = job.state();
+        if (state == CompileJob.State.FINISHED || state == CompileJob.State.CANCELLED) {
+            bossBar.removeAllPlayers();
+            return true;
+        }
+        if (ticks++ % UPDATE_INTERVAL == 0) {
+            bossBar.setName(getName());
+            bossBar.setProgress(job.progress());
+        }
+        return false;
+    }
+
+    private Component getName() {
+        final String step = job.currentStep();
+        if (job.state() != CompileJob.State.RUNNING || step == null) {
+            return Component.translatable("mc2p2.compile.bar.queued", job.mapName());
+        }
+        final String phase = job.currentPhase();
+        final String activity = phase != null ? step + " " + phase : step;
+        final long remaining = job.remainingNanos();
+        if (remaining < 0) {
+            return Component.translatable("mc2p2.compile.bar.running", job.mapName(), activity);
+        }
+        return Component.translatable(
+            "mc2p2.compile.bar.running_eta", job.mapName(), activity, TimeUnit.NANOSECONDS.toSeconds(remaining)
+        );
+    }
+
+    @Override
+    public String toString() {
+        return "CompileProgressBar[" + job + "]";
+    }
+}
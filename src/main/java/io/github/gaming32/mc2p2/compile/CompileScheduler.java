@@ -0,0 +1,150 @@
+package io.github.gaming32.mc2p2.compile;
+
+import io.github.gaming32.mc2p2.steam.SteamGames;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerLifecycleEvents;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+/**
+ * Runs map compiles with at most one job per map. Submitting a map that already has a job for the same VMF and profile
+ * joins that job. Otherwise the job is superseded: a queued job is replaced in its place in the queue, and a running job
+ * is killed, since it would be compiling an outdated VMF.
+ */
+public class CompileScheduler {
+    /**
+     * The most compiles that run at once. vvis and vrad use every core by themselves, so this defaults to a quarter of
+     * them.
+     */
+    public static final int MAX_CONCURRENT_COMPILES = Integer.getInteger(
+        "mc2p2.maxConcurrentCompiles", Math.max(1, Runtime.getRuntime().availableProcessors() / 4)
+    );
+    /**
+     * The thread count for compilers that are told one, so that a full set of concurrent compiles uses every core.
+     */
+    public static final String THREADS_PER_COMPILE = Integer.toString(
+        Math.max(1, Runtime.getRuntime().availableProcessors() / MAX_CONCURRENT_COMPILES)
+    );
+
+    private static final Map<String, CompileJob> QUEUED = new LinkedHashMap<>();
+    private static final Map<String, CompileJob> RUNNING = new LinkedHashMap<>();
+
+    public static void init() {
+        ServerLifecycleEvents.SERVER_STOPPING.register(server -> cancelAll());
+    }
+
+    /**
+     * @param vmfDigest The hex SHA-256 of the VMF, as returned by {@link io.github.gaming32.mc2p2.vmf.VmfFile#write}
+     * @param onFinish Called on {@code serverExecutor} once the job has finished. It's passed the failure, which is a
+     *                 {@link java.util.concurrent.CancellationException} if the job was superseded, or {@code null} if
+     *                 the map compiled.
+     * @return The new job or the job that was joined, or {@code null} if Portal 2 isn't installed
+     */
+    @Nullable
+    public static synchronized CompileJob submit(
+        String mapName, CompileProfile profile, String vmfDigest, boolean run, Executor serverExecutor,
+        Consumer<@Nullable Throwable> onFinish
+    ) {
+        if (SteamGames.PORTAL_2_PATH == null) {
+            return null;
+        }
+        final CompileJob matching = getMatching(mapName, profile, vmfDigest);
+        if (matching != null && matching.join(run, onFinish)) {
+            return matching;
+        }
+        final CompileJob job = new CompileJob(mapName, profile, vmfDigest, run, serverExecutor, onFinish);
+        final CompileJob replaced = QUEUED.put(mapName, job);
+        if (replaced != null) {
+            replaced.cancel();
+        }
+        final CompileJob running = RUNNING.get(mapName);
+        if (running != null) {
+            running.cancel();
+        }
+        startJobs();
+        return job;
+    }
+
+    /**
+     * @return Whether {@code mapName} has a queued or running job that's compiling the same VMF with the same profile
+     */
+    public static synchronized boolean isCompiling(String mapName, CompileProfile profile, String vmfDigest) {
+        return getMatching(mapName, profile, vmfDigest) != null;
+    }
+
+    @Nullable
+    private static CompileJob getMatching(String mapName, CompileProfile profile, String vmfDigest) {
+        final CompileJob queued = QUEUED.get(mapName);
+        final CompileJob job = queued != null ? queued : RUNNING.get(mapName);
+        if (job == null || job.state() == CompileJob.State.CANCELLED) {
+            return null;
+        }
+        return job.profile() == profile && job.vmfDigest().equals(vmfDigest) ? job : null;
+    }
+
+    /**
+     * @return The running jobs, followed by the queued jobs in the order they'll start in
+     */
+    public static synchronized List<CompileJob> jobs() {
+        final List<CompileJob> result = new ArrayList<>(RUNNING.size() + QUEUED.size());
+        result.addAll(RUNNING.values());
+        result.addAll(QUEUED.values());
+        return result;
+    }
+
+    /**
+     * Cancels the jobs for {@code mapName}, for when the BSP already in place is up to date. Once this returns, none of
+     * them will deploy a BSP.
+     */
+    public static synchronized void cancel(String mapName) {
+        final CompileJob queued = QUEUED.remove(mapName);
+        if (queued != null) {
+            queued.cancel();
+        }
+        final CompileJob running = RUNNING.get(mapName);
+        if (running != null) {
+            running.cancel();
+        }
+    }
+
+    public static synchronized void cancelAll() {
+        final List<CompileJob> jobs = jobs();
+        QUEUED.clear();
+        for (final CompileJob job : jobs) {
+            job.cancel();
+        }
+    }
+
+    private static synchronized void startJobs() {
+        final List<CompileJob> started = new ArrayList<>();
+        final Iterator<CompileJob> it = QUEUED.values().iterator();
+        while (it.hasNext() && RUNNING.size() < MAX_CONCURRENT_COMPILES) {
+            final CompileJob job = it.next();
+            // A superseded job for this map is still shutting down
+            if (RUNNING.containsKey(job.mapName())) continue;
+            it.remove();
+            RUNNING.put(job.mapName(), job);
+            started.add(job);
+        }
+        // Jobs are started after iterating, since a job that fails to start finishes right away
+        for (final CompileJob job : started) {
+            job.start().whenComplete((v, t) -> finished(job, t));
+        }
+    }
+
+    private static synchronized void finished(CompileJob job, @Nullable Throwable t) {
+        if (t instanceof CompletionException && t.getCause() != null) {
+            t = t.getCause();
+        }
+        RUNNING.remove(job.mapName(), job);
+        job.finish(t);
+        startJobs();
+    }
+}
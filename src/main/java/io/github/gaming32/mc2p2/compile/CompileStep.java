@@ -0,0 +1,14 @@
+package io.github.gaming32.mc2p2.compile;
+
+import java.util.List;
+
+/**
+ * One compiler run in a {@link CompileProfile}.
+ * @param executable The name of the compiler in Portal 2's {@code bin} directory, without {@code .exe}.
+ * @param arguments Extra arguments, passed before {@code -game}.
+ */
+public record CompileStep(String executable, List<String> arguments) {
+    public static CompileStep of(String executable, String... arguments) {
+        return new CompileStep(executable, List.of(arguments));
+    }
+}
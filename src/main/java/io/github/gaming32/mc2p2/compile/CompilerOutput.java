@@ -0,0 +1,154 @@
+package io.github.gaming32.mc2p2.compile;
+
+import io.github.gaming32.mc2p2.MC2P2;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reads the console output of a compiler, logging each line and picking out the progress it reports. Phases are printed
+ * as their name followed by "0...1...2..." up to "10", and the line only ends once the phase is done, so markers are
+ * parsed as the characters arrive rather than per line.
+ */
+final class CompilerOutput {
+    private static final Pattern BOUNCE = Pattern.compile("^Bounce #(\\d+) added RAD");
+    /**
+     * Lines that are only a number and what it counts, such as vvis's {@code 123 portalclusters}.
+     */
+    private static final Pattern COUNT = Pattern.compile("^\\s*(\\d+)\\s+([a-z][a-z ]*[a-z])\\s*$");
+
+    private final String executable;
+    private final boolean error;
+    @Nullable
+    private final ProgressListener listener;
+    private final Map<String, Integer> counts = new LinkedHashMap<>();
+
+    private final StringBuilder line = new StringBuilder();
+    @Nullable
+    private String phase;
+
+    /**
+     * @param error Whether this is the compiler's stderr, which is logged as warnings and not parsed
+     */
+    CompilerOutput(String executable, boolean error, @Nullable ProgressListener listener) {
+        this.executable = executable;
+        this.error = error;
+        this.listener = listener;
+    }
+
+    /**
+     * Reads {@code in} until the compiler closes it.
+     */
+    void read(InputStream in) {
+        try (Reader reader = new InputStreamReader(in, Charset.defaultCharset())) {
+            final char[] buffer = new char[1024];
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                for (int i = 0; i < read; i++) {
+                    accept(buffer[i]);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (!line.isEmpty()) {
+            endLine();
+        }
+    }
+
+    /**
+     * @return The counts reported so far, by what they count
+     */
+    Map<String, Integer> counts() {
+        return Collections.unmodifiableMap(counts);
+    }
+
+    private void accept(char c) {
+        if (c == '\r') return;
+        if (c == '\n') {
+            endLine();
+            return;
+        }
+        line.append(c);
+        if (c == '.' && !error) {
+            parseMarker();
+        }
+    }
+
+    private void parseMarker() {
+        final int end = line.length() - 3;
+        if (end < 1 || line.charAt(end) != '.' || line.charAt(end + 1) != '.') return;
+        int start = end;
+        while (start > 0 && Character.isDigit(line.charAt(start - 1))) {
+            start--;
+        }
+        if (start == end) return;
+        if (phase == null) {
+            // The first marker of a phase follows its name, rather than a previous marker
+            if (start > 0 && !Character.isWhitespace(line.charAt(start - 1)) && line.charAt(start - 1) != ':') return;
+            phase = trimPhase(line.substring(0, start));
+        }
+        final int marker = Integer.parseInt(line, start, end, 10);
+        progress(phase, Math.min(marker / 10f, 1f));
+    }
+
+    private void endLine() {
+        final String text = line.toString();
+        line.setLength(0);
+        if (phase != null) {
+            // The last marker is "10" without dots, so the phase is done once its line ends
+            progress(phase, 1f);
+            phase = null;
+        }
+        if (text.isBlank()) return;
+        if (error) {
+            MC2P2.LOGGER.warn("[{}] {}", executable, text);
+            return;
+        }
+        MC2P2.LOGGER.info("[{}] {}", executable, text);
+        final Matcher bounce = BOUNCE.matcher(text);
+        if (bounce.find()) {
+            progress("Bounce " + bounce.group(1), -1f);
+            return;
+        }
+        final Matcher count = COUNT.matcher(text);
+        if (count.matches()) {
+            try {
+                counts.put(count.group(2), Integer.parseInt(count.group(1)));
+            } catch (NumberFormatException ignored) {
+            }
+        }
+    }
+
+    private void progress(String phase, float progress) {
+        if (listener != null) {
+            listener.progress(phase, progress);
+        }
+    }
+
+    private static String trimPhase(String text) {
+        text = text.strip();
+        if (text.endsWith(":")) {
+            text = text.substring(0, text.length() - 1).strip();
+        }
+        return text;
+    }
+
+    @FunctionalInterface
+    interface ProgressListener {
+        /**
+         * @param progress How far along the phase is from 0 to 1, or -1 if the compiler doesn't say
+         */
+        void progress(String phase, float progress);
+    }
+}
@@ -0,0 +1,67 @@
+package io.github.gaming32.mc2p2.compile;
+
+import io.github.gaming32.mc2p2.MC2P2;
+import org.jetbrains.annotations.Nullable;
+import oshi.SystemInfo;
+import oshi.software.os.OSProcess;
+import oshi.software.os.OperatingSystem;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+/**
+ * Samples how much memory a process tree has resident. Java has no portable way to ask, so this reads {@code /proc}
+ * where there is one, which covers compilers run through Wine, and otherwise asks OSHI, which Minecraft already ships
+ * for its system reports. On Windows that's the working set of each process.
+ */
+final class ProcessMemory {
+    private static final Path PROC = Path.of("/proc");
+    private static final boolean HAS_PROC = Files.isDirectory(PROC.resolve("self"));
+    @Nullable
+    private static final OperatingSystem OPERATING_SYSTEM = HAS_PROC ? null : getOperatingSystem();
+
+    private ProcessMemory() {
+    }
+
+    /**
+     * @return The resident memory of {@code process} and its descendants in bytes, or -1 if it can't be measured
+     */
+    static long residentBytes(ProcessHandle process) {
+        if (!HAS_PROC && OPERATING_SYSTEM == null) {
+            return -1;
+        }
+        return Stream.concat(Stream.of(process), process.descendants())
+            .mapToLong(handle -> readResidentBytes(handle.pid()))
+            .sum();
+    }
+
+    private static long readResidentBytes(long pid) {
+        if (OPERATING_SYSTEM != null) {
+            final OSProcess process = OPERATING_SYSTEM.getProcess((int)pid);
+            // The process exited between listing and reading it
+            return process != null ? process.getResidentSetSize() : 0;
+        }
+        try (Stream<String> lines = Files.lines(PROC.resolve(Long.toString(pid)).resolve("status"))) {
+            return lines.filter(line -> line.startsWith("VmRSS:"))
+                .findFirst()
+                .map(line -> Long.parseLong(line.substring(6).replace("kB", "").strip()) * 1024)
+                .orElse(0L);
+        } catch (IOException | UncheckedIOException | NumberFormatException e) {
+            // The process exited between listing and reading it
+            return 0;
+        }
+    }
+
+    @Nullable
+    private static OperatingSystem getOperatingSystem() {
+        try {
+            return new SystemInfo().getOperatingSystem();
+        } catch (UnsupportedOperationException | LinkageError e) {
+            MC2P2.LOGGER.warn("Can't measure the memory of compilers on this platform", e);
+            return null;
+        }
+    }
+}
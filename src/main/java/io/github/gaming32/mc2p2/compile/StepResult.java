@@ -0,0 +1,18 @@
+package io.github.gaming32.mc2p2.compile;
+
+import java.util.Map;
+
+/**
+ * What happened when a {@link CompileStep} was run.
+ * @param vmfSize The size of the compiled VMF in bytes.
+ * @param peakMemory The most memory the compiler and its child processes had resident at once in bytes, or -1 if it
+ *                   couldn't be measured on this platform.
+ * @param counts The counts the compiler reported, such as vvis's {@code portalclusters}.
+ */
+public record StepResult(
+    CompileStep step, long vmfSize, long wallNanos, long peakMemory, int exitCode, Map<String, Integer> counts
+) {
+    public boolean succeeded() {
+        return exitCode == 0;
+    }
+}
@@ -0,0 +1,136 @@
+package io.github.gaming32.mc2p2.generator;
+
+import io.github.gaming32.mc2p2.util.AreaLayout;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import net.minecraft.core.BlockPos;
+import net.minecraft.world.level.block.Block;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.levelgen.structure.BoundingBox;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * The positions of each tracked block type in a {@link WorldSnapshot}, stored as one {@link BitSet} of
+ * {@link AreaLayout} indices per block.
+ */
+public final class BlockIndex {
+    private final AreaLayout layout;
+    private final Map<Block, BitSet> blocks;
+
+    private BlockIndex(AreaLayout layout, Map<Block, BitSet> blocks) {
+        this.layout = layout;
+        this.blocks = blocks;
+    }
+
+    /**
+     * Indexes every section of {@code world} in parallel. Sections whose palette doesn't contain a tracked state are
+     * skipped without reading their blocks.
+     */
+    public static BlockIndex build(WorldSnapshot world, Predicate<BlockState> tracked) {
+        final Block[] trackedBlocks = new Block[world.paletteSize()];
+        for (int id = 0; id < trackedBlocks.length; id++) {
+            final BlockState state = world.getPaletteState(id);
+            if (tracked.test(state)) {
+                trackedBlocks[id] = state.getBlock();
+            }
+        }
+        final List<Map<Block, IntArrayList>> sectionResults = world.sections()
+            .parallelStream()
+            .map(section -> indexSection(world, section, trackedBlocks))
+            .toList();
+        final Map<Block, BitSet> blocks = new LinkedHashMap<>();
+        for (final Map<Block, IntArrayList> sectionResult : sectionResults) {
+            for (final var entry : sectionResult.entrySet()) {
+                final BitSet positions = blocks.computeIfAbsent(entry.getKey(), k -> new BitSet());
+                final IntArrayList indices = entry.getValue();
+                for (int i = 0, size = indices.size(); i < size; i++) {
+                    positions.set(indices.getInt(i));
+                }
+            }
+        }
+        return new BlockIndex(world.layout(), blocks);
+    }
+
+    private static Map<Block, IntArrayList> indexSection(WorldSnapshot world, WorldSnapshot.Section section, Block[] trackedBlocks) {
+        boolean hasTracked = false;
+        for (final int id : section.paletteIds()) {
+            if (trackedBlocks[id] != null) {
+                hasTracked = true;
+                break;
+            }
+        }
+        if (!hasTracked) {
+            return Collections.emptyMap();
+        }
+        final AreaLayout layout = world.layout();
+        final BoundingBox bounds = section.bounds();
+        final Map<Block, IntArrayList> result = new LinkedHashMap<>();
+        Block lastBlock = null;
+        IntArrayList lastIndices = null;
+        for (int z = bounds.minZ(); z <= bounds.maxZ(); z++) {
+            for (int y = bounds.minY(); y <= bounds.maxY(); y++) {
+                int index = layout.index(bounds.minX(), y, z);
+                for (int x = bounds.minX(); x <= bounds.maxX(); x++, index++) {
+                    final Block block = trackedBlocks[world.getId(index)];
+                    if (block == null) continue;
+                    if (block != lastBlock) {
+                        lastBlock = block;
+                        lastIndices = result.computeIfAbsent(block, k -> new IntArrayList());
+                    }
+                    lastIndices.add(index);
+                }
+            }
+        }
+        return result;
+    }
+
+    public AreaLayout layout() {
+        return layout;
+    }
+
+    public Map<Block, BitSet> asMap() {
+        return Collections.unmodifiableMap(blocks);
+    }
+
+    public boolean contains(Block block, int index) {
+        final BitSet positions = blocks.get(block);
+        return positions != null && positions.get(index);
+    }
+
+    public boolean contains(Block block, BlockPos pos) {
+        return layout.contains(pos) && contains(block, layout.index(pos));
+    }
+
+    public boolean remove(Block block, BlockPos pos) {
+        if (!layout.contains(pos)) {
+            return false;
+        }
+        final BitSet positions = blocks.get(block);
+        if (positions == null) {
+            return false;
+        }
+        final int index = layout.index(pos);
+        final boolean result = positions.get(index);
+        positions.clear(index);
+        return result;
+    }
+
+    /**
+     * @return The removed positions. This is never {@code null}, and is not shared with the index anymore.
+     */
+    public BitSet removeAll(Block block) {
+        final BitSet result = blocks.remove(block);
+        return result != null ? result : new BitSet();
+    }
+
+    @Nullable
+    public BitSet get(Block block) {
+        return blocks.get(block);
+    }
+}
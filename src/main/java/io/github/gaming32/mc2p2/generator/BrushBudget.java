@@ -0,0 +1,52 @@
+package io.github.gaming32.mc2p2.generator;
+
+import io.github.gaming32.mc2p2.vmf.SimpleBrush;
+import it.unimi.dsi.fastutil.doubles.DoubleOpenHashSet;
+import it.unimi.dsi.fastutil.doubles.DoubleSet;
+import net.minecraft.core.Direction;
+
+import java.util.Collection;
+
+/**
+ * The most brushes, brush sides, and planes a map may use. The defaults are the Source engine limits, and can be
+ * overridden with the {@code mc2p2.maxBrushes}, {@code mc2p2.maxBrushSides}, and {@code mc2p2.maxPlanes} system
+ * properties.
+ */
+public record BrushBudget(int maxBrushes, int maxSides, int maxPlanes) {
+    public static final BrushBudget SOURCE_LIMITS = new BrushBudget(8192, 65536, 65536);
+
+    public static BrushBudget fromSystemProperties() {
+        return new BrushBudget(
+            Integer.getInteger("mc2p2.maxBrushes", SOURCE_LIMITS.maxBrushes),
+            Integer.getInteger("mc2p2.maxBrushSides", SOURCE_LIMITS.maxSides),
+            Integer.getInteger("mc2p2.maxPlanes", SOURCE_LIMITS.maxPlanes)
+        );
+    }
+
+    public boolean fits(Usage usage) {
+        return usage.brushes <= maxBrushes && usage.sides <= maxSides && usage.planes <= maxPlanes;
+    }
+
+    public record Usage(int brushes, int sides, int planes) {
+        /**
+         * Planes are counted the way vbsp stores them: one pair (both facings) for every distinct axis-aligned plane.
+         */
+        public static Usage of(Collection<SimpleBrush> brushes) {
+            final DoubleSet[] planes = new DoubleSet[Direction.Axis.values().length];
+            for (int i = 0; i < planes.length; i++) {
+                planes[i] = new DoubleOpenHashSet();
+            }
+            for (final SimpleBrush brush : brushes) {
+                for (final Direction.Axis axis : Direction.Axis.values()) {
+                    planes[axis.ordinal()].add(brush.bounds().min(axis));
+                    planes[axis.ordinal()].add(brush.bounds().max(axis));
+                }
+            }
+            int planeCount = 0;
+            for (final DoubleSet axisPlanes : planes) {
+                planeCount += axisPlanes.size() * 2;
+            }
+            return new Usage(brushes.size(), brushes.size() * 6, planeCount);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package io.github.gaming32.mc2p2.generator;
+
+import io.github.gaming32.mc2p2.util.AreaLayout;
+import net.minecraft.core.Direction;
+import net.minecraft.util.StringRepresentable;
+import net.minecraft.world.level.levelgen.structure.BoundingBox;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Splits a set of positions into boxes, each of which becomes a brush.
+ */
+public enum BrushDecomposer implements StringRepresentable {
+    /**
+     * Grows a box from each unused position, trying {@code directions} in order.
+     */
+    GROWING("growing") {
+        @Override
+        public List<BoundingBox> decompose(AreaLayout layout, BitSet positions, List<Direction> directions) {
+            return GrowingDecomposition.decompose(layout, positions, directions);
+        }
+    },
+    /**
+     * Greedily meshes the positions once for every order of the axes in {@code directions}, merges boxes that share a
+     * whole face, and keeps the result with the fewest boxes.
+     */
+    GREEDY_MESH("greedy_mesh") {
+        @Override
+        public List<BoundingBox> decompose(AreaLayout layout, BitSet positions, List<Direction> directions) {
+            return GreedyMeshDecomposition.decompose(layout, positions, directions);
+        }
+    },
+    /**
+     * Runs every other decomposer and keeps the result with the fewest boxes.
+     */
+    BEST("best") {
+        @Override
+        public List<BoundingBox> decompose(AreaLayout layout, BitSet positions, List<Direction> directions) {
+            List<BoundingBox> result = null;
+            for (final BrushDecomposer decomposer : CONCRETE) {
+                final List<BoundingBox> boxes = decomposer.decompose(layout, positions, directions);
+                if (result == null || boxes.size() < result.size()) {
+                    result = boxes;
+                }
+            }
+            return result;
+        }
+    };
+
+    public static final List<BrushDecomposer> CONCRETE = List.of(GROWING, GREEDY_MESH);
+
+    private final String name;
+
+    BrushDecomposer(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @param positions The {@link AreaLayout} indices to cover. This isn't modified.
+     * @param directions The directions boxes may extend in. Boxes are never more than one position thick along an
+     *                   axis that isn't in this list.
+     */
+    public abstract List<BoundingBox> decompose(AreaLayout layout, BitSet positions, List<Direction> directions);
+
+    @NotNull
+    @Override
+    public String getSerializedName() {
+        return name;
+    }
+
+    @Nullable
+    public static BrushDecomposer byName(String name) {
+        for (final BrushDecomposer decomposer : values()) {
+            if (decomposer.name.equals(name.toLowerCase(Locale.ROOT))) {
+                return decomposer;
+            }
+        }
+        return null;
+    }
+}
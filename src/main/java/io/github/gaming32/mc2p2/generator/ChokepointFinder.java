@@ -0,0 +1,201 @@
+package io.github.gaming32.mc2p2.generator;
+
+import io.github.gaming32.mc2p2.util.AreaLayout;
+import it.unimi.dsi.fastutil.ints.IntArrayFIFOQueue;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import net.minecraft.core.Direction;
+import net.minecraft.world.level.levelgen.structure.BoundingBox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Finds small rectangular openings in the playable space that connect larger spaces, like doorways and the mouths
+ * of corridors. Each slice of the area along each axis is split into connected components of reachable positions. A
+ * component is an opening if it fills its bounding rectangle, is at most {@link #MAX_OPENING_AREA} positions, and
+ * continues into both neighboring slices, with at least one of them being {@link #ROOM_RATIO} times larger.
+ */
+public final class ChokepointFinder {
+    private static final int MAX_OPENING_AREA = 16;
+    private static final int ROOM_RATIO = 4;
+
+    private final AreaLayout layout;
+    private final PlayableSpace playableSpace;
+    private final BitSet excluded;
+
+    /**
+     * @param excluded Positions that shouldn't be part of an opening, like door openings that get areaportals
+     */
+    public ChokepointFinder(AreaLayout layout, PlayableSpace playableSpace, BitSet excluded) {
+        this.layout = layout;
+        this.playableSpace = playableSpace;
+        this.excluded = excluded;
+    }
+
+    public List<Opening> find() {
+        final List<Opening> result = new ArrayList<>();
+        for (final Direction.Axis axis : Direction.Axis.values()) {
+            findAlong(axis, result);
+        }
+        return result;
+    }
+
+    private void findAlong(Direction.Axis axis, List<Opening> result) {
+        final int sliceCount = span(axis);
+        if (sliceCount < 3) return;
+        Slice previous = null;
+        Slice current = new Slice(axis, 0);
+        Slice next = new Slice(axis, 1);
+        for (int slice = 1; slice < sliceCount - 1; slice++) {
+            previous = current;
+            current = next;
+            next = new Slice(axis, slice + 1);
+            for (int component = 0; component < current.sizes.size(); component++) {
+                final int size = current.sizes.getInt(component);
+                if (size > MAX_OPENING_AREA) continue;
+                final int[] rect = current.bounds[component];
+                if ((rect[2] - rect[0] + 1) * (rect[3] - rect[1] + 1) != size) continue;
+                final int before = previous.largestIn(rect);
+                final int after = next.largestIn(rect);
+                if (Math.min(before, after) < size || Math.max(before, after) < size * ROOM_RATIO) continue;
+                final BoundingBox cells = current.toBox(rect);
+                if (anyExcluded(cells)) continue;
+                result.add(new Opening(cells, axis));
+            }
+        }
+    }
+
+    private boolean anyExcluded(BoundingBox cells) {
+        for (int z = cells.minZ(); z <= cells.maxZ(); z++) {
+            for (int y = cells.minY(); y <= cells.maxY(); y++) {
+                for (int x = cells.minX(); x <= cells.maxX(); x++) {
+                    if (excluded.get(layout.index(x, y, z))) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private int span(Direction.Axis axis) {
+        return switch (axis) {
+            case X -> layout.xSpan();
+            case Y -> layout.ySpan();
+            case Z -> layout.zSpan();
+        };
+    }
+
+    /**
+     * The connected components of reachable positions in one slice. Positions in the slice are addressed as
+     * {@code (u, v)}, where {@code u} and {@code v} are the other two axes in {@code X, Y, Z} order.
+     */
+    private final class Slice {
+        private final Direction.Axis axis;
+        private final int position;
+        private final int uSpan, vSpan;
+        private final int[] labels;
+        private final IntArrayList sizes = new IntArrayList();
+        private int[][] bounds;
+
+        Slice(Direction.Axis axis, int position) {
+            this.axis = axis;
+            this.position = position;
+            this.uSpan = axis == Direction.Axis.X ? layout.ySpan() : layout.xSpan();
+            this.vSpan = axis == Direction.Axis.Z ? layout.ySpan() : layout.zSpan();
+            this.labels = new int[uSpan * vSpan];
+            Arrays.fill(labels, -1);
+            label();
+        }
+
+        private void label() {
+            final List<int[]> componentBounds = new ArrayList<>();
+            final IntArrayFIFOQueue queue = new IntArrayFIFOQueue();
+            for (int start = 0; start < labels.length; start++) {
+                if (labels[start] != -1 || !isReachable(start % uSpan, start / uSpan)) continue;
+                final int component = sizes.size();
+                final int[] rect = {Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE};
+                int size = 0;
+                labels[start] = component;
+                queue.enqueue(start);
+                while (!queue.isEmpty()) {
+                    final int cell = queue.dequeueInt();
+                    final int u = cell % uSpan, v = cell / uSpan;
+                    size++;
+                    rect[0] = Math.min(rect[0], u);
+                    rect[1] = Math.min(rect[1], v);
+                    rect[2] = Math.max(rect[2], u);
+                    rect[3] = Math.max(rect[3], v);
+                    visit(u - 1, v, component, queue);
+                    visit(u + 1, v, component, queue);
+                    visit(u, v - 1, component, queue);
+                    visit(u, v + 1, component, queue);
+                }
+                sizes.add(size);
+                componentBounds.add(rect);
+            }
+            bounds = componentBounds.toArray(int[][]::new);
+        }
+
+        private void visit(int u, int v, int component, IntArrayFIFOQueue queue) {
+            if (u < 0 || v < 0 || u >= uSpan || v >= vSpan) return;
+            final int cell = v * uSpan + u;
+            if (labels[cell] != -1 || !isReachable(u, v)) return;
+            labels[cell] = component;
+            queue.enqueue(cell);
+        }
+
+        private boolean isReachable(int u, int v) {
+            return playableSpace.isReachable(index(u, v));
+        }
+
+        private int index(int u, int v) {
+            return switch (axis) {
+                case X -> layout.index(layout.minX() + position, layout.minY() + u, layout.minZ() + v);
+                case Y -> layout.index(layout.minX() + u, layout.minY() + position, layout.minZ() + v);
+                case Z -> layout.index(layout.minX() + u, layout.minY() + v, layout.minZ() + position);
+            };
+        }
+
+        /**
+         * @return The size of the largest component that has a position in {@code rect}, or 0 if there is none
+         */
+        int largestIn(int[] rect) {
+            int result = 0;
+            for (int v = rect[1]; v <= rect[3]; v++) {
+                for (int u = rect[0]; u <= rect[2]; u++) {
+                    final int label = labels[v * uSpan + u];
+                    if (label != -1) {
+                        result = Math.max(result, sizes.getInt(label));
+                    }
+                }
+            }
+            return result;
+        }
+
+        BoundingBox toBox(int[] rect) {
+            return switch (axis) {
+                case X -> new BoundingBox(
+                    layout.minX() + position, layout.minY() + rect[0], layout.minZ() + rect[1],
+                    layout.minX() + position, layout.minY() + rect[2], layout.minZ() + rect[3]
+                );
+                case Y -> new BoundingBox(
+                    layout.minX() + rect[0], layout.minY() + position, layout.minZ() + rect[1],
+                    layout.minX() + rect[2], layout.minY() + position, layout.minZ() + rect[3]
+                );
+                case Z -> new BoundingBox(
+                    layout.minX() + rect[0], layout.minY() + rect[1], layout.minZ() + position,
+                    layout.minX() + rect[2], layout.minY() + rect[3], layout.minZ() + position
+                );
+            };
+        }
+    }
+
+    /**
+     * @param cells The positions of the opening, one position thick along {@code axis}
+     */
+    public record Opening(BoundingBox cells, Direction.Axis axis) {
+    }
+}
@@ -0,0 +1,105 @@
+package io.github.gaming32.mc2p2.generator;
+
+import io.github.gaming32.mc2p2.util.TickTask;
+import net.minecraft.core.SectionPos;
+import net.minecraft.server.level.ServerChunkCache;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.server.level.TicketType;
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.levelgen.structure.BoundingBox;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Adds chunk tickets for every chunk in an area and waits for them and their entities to finish loading, so that
+ * capturing the area doesn't load or generate chunks synchronously. The tickets are held until {@link #release()} is
+ * called, or until loading takes longer than {@link #TIMEOUT_NANOS}.
+ */
+public final class ChunkPrefetch implements TickTask {
+    private static final TicketType<ChunkPos> TICKET_TYPE = TicketType.create(
+        "mc2p2_prefetch", Comparator.comparingLong(ChunkPos::toLong)
+    );
+    /**
+     * How long loading may take before the prefetch fails and releases its tickets.
+     */
+    public static final long TIMEOUT_NANOS = TimeUnit.MINUTES.toNanos(2);
+
+    private final ServerLevel level;
+    private final ServerChunkCache chunkSource;
+    private final List<ChunkPos> chunks = new ArrayList<>();
+    private final List<ChunkPos> pending;
+    private final CompletableFuture<Void> future = new CompletableFuture<>();
+    private boolean ticketsAdded;
+    private boolean released;
+    private long startTime;
+
+    public ChunkPrefetch(ServerLevel level, BoundingBox area) {
+        this.level = level;
+        this.chunkSource = level.getChunkSource();
+        for (int z = SectionPos.blockToSectionCoord(area.minZ()); z <= SectionPos.blockToSectionCoord(area.maxZ()); z++) {
+            for (int x = SectionPos.blockToSectionCoord(area.minX()); x <= SectionPos.blockToSectionCoord(area.maxX()); x++) {
+                chunks.add(new ChunkPos(x, z));
+            }
+        }
+        pending = new ArrayList<>(chunks);
+    }
+
+    public int chunkCount() {
+        return chunks.size();
+    }
+
+    public CompletableFuture<Void> future() {
+        return future;
+    }
+
+    @Override
+    public boolean tick(long deadline) {
+        if (released) {
+            return true;
+        }
+        if (!ticketsAdded) {
+            ticketsAdded = true;
+            startTime = System.nanoTime();
+            for (final ChunkPos chunk : chunks) {
+                chunkSource.addRegionTicket(TICKET_TYPE, chunk, 0, chunk);
+            }
+            // The tickets are only processed during the next chunk source tick
+            return false;
+        }
+        // Entities are loaded separately, after the chunk itself is
+        pending.removeIf(chunk ->
+            chunkSource.getChunkNow(chunk.x, chunk.z) != null && level.areEntitiesLoaded(chunk.toLong())
+        );
+        if (!pending.isEmpty()) {
+            if (System.nanoTime() - startTime > TIMEOUT_NANOS) {
+                release();
+                future.completeExceptionally(new TimeoutException(
+                    pending.size() + " of " + chunks.size() + " chunks didn't load in time"
+                ));
+                return true;
+            }
+            return false;
+        }
+        future.complete(null);
+        return true;
+    }
+
+    public void release() {
+        if (released) return;
+        released = true;
+        if (!ticketsAdded) return;
+        for (final ChunkPos chunk : chunks) {
+            chunkSource.removeRegionTicket(TICKET_TYPE, chunk, 0, chunk);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ChunkPrefetch[" + (chunks.size() - pending.size()) + "/" + chunks.size() + "]";
+    }
+}
@@ -0,0 +1,155 @@
+package io.github.gaming32.mc2p2.generator;
+
+import io.github.gaming32.mc2p2.util.MC2P2Util;
+import io.github.gaming32.mc2p2.vmf.MaterialInfo;
+import io.github.gaming32.mc2p2.vmf.SimpleBrush;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.ints.IntSet;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.Direction;
+import net.minecraft.world.phys.AABB;
+import net.minecraft.world.phys.Vec3;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongConsumer;
+
+/**
+ * Finds brush faces that are pressed against other brushes or the edge of the map, and so can never be seen.
+ */
+public final class FaceOcclusion {
+    /**
+     * The size of a spatial hash cell, in Source units. This is 4 blocks.
+     */
+    private static final double CELL_SIZE = 256;
+
+    private final List<SimpleBrush> brushes;
+    private final AABB mapBounds;
+    private final Long2ObjectMap<IntArrayList> cells = new Long2ObjectOpenHashMap<>();
+
+    /**
+     * @param mapBounds The inside of the skybox. Faces on its edge, facing out, are covered by the skybox.
+     */
+    public FaceOcclusion(List<SimpleBrush> brushes, AABB mapBounds) {
+        this.brushes = brushes;
+        this.mapBounds = mapBounds;
+        for (int i = 0; i < brushes.size(); i++) {
+            final int index = i;
+            forEachCell(brushes.get(i).bounds(), key -> cells.computeIfAbsent(key, k -> new IntArrayList()).add(index));
+        }
+    }
+
+    /**
+     * @return The brushes with every fully covered face switched to {@link MaterialInfo#NODRAW}
+     */
+    public Result cull() {
+        final List<SimpleBrush> result = new ArrayList<>(brushes.size());
+        final List<Vec3> partiallyCovered = new ArrayList<>();
+        int culledFaces = 0;
+        for (int i = 0; i < brushes.size(); i++) {
+            final SimpleBrush brush = brushes.get(i);
+            Map<Direction, MaterialInfo> materials = null;
+            for (final Direction dir : MC2P2Util.DIRECTIONS) {
+                if (brush.materials().getOrDefault(dir, MaterialInfo.NODRAW).equals(MaterialInfo.NODRAW)) continue;
+                final double coverage = coverage(i, dir);
+                if (coverage >= 1) {
+                    if (materials == null) {
+                        materials = new EnumMap<>(Direction.class);
+                        materials.putAll(brush.materials());
+                    }
+                    materials.put(dir, MaterialInfo.NODRAW);
+                    culledFaces++;
+                } else if (coverage > 0) {
+                    partiallyCovered.add(faceCenter(brush.bounds(), dir));
+                }
+            }
+            result.add(materials != null ? new SimpleBrush(brush.bounds(), materials, brush.lightmapScales()) : brush);
+        }
+        return new Result(result, culledFaces, partiallyCovered);
+    }
+
+    /**
+     * @return The fraction of the brush's {@code dir} face that touches other brushes or the map edge
+     */
+    private double coverage(int brushIndex, Direction dir) {
+        final AABB bounds = brushes.get(brushIndex).bounds();
+        final double plane = MC2P2Util.getSide(bounds, dir);
+        if (plane == MC2P2Util.getSide(mapBounds, dir)) {
+            return 1;
+        }
+        final Direction.Axis axis = dir.getAxis();
+        final AABB face = oneSided(bounds, dir);
+        final double faceArea = area(face, axis);
+        final IntSet checked = new IntOpenHashSet();
+        final double[] covered = {0};
+        forEachCell(face, key -> {
+            final IntArrayList candidates = cells.get(key);
+            if (candidates == null) return;
+            for (int j = 0, size = candidates.size(); j < size; j++) {
+                final int other = candidates.getInt(j);
+                if (other == brushIndex || !checked.add(other)) continue;
+                final AABB otherBounds = brushes.get(other).bounds();
+                if (MC2P2Util.getSide(otherBounds, dir.getOpposite()) != plane) continue;
+                // Brushes don't overlap, so the parts of their faces on this plane don't either
+                covered[0] += area(face.intersect(oneSided(otherBounds, dir.getOpposite())), axis);
+            }
+        });
+        return covered[0] / faceArea;
+    }
+
+    private static AABB oneSided(AABB bounds, Direction dir) {
+        final double side = MC2P2Util.getSide(bounds, dir);
+        return switch (dir.getAxis()) {
+            case X -> new AABB(side, bounds.minY, bounds.minZ, side, bounds.maxY, bounds.maxZ);
+            case Y -> new AABB(bounds.minX, side, bounds.minZ, bounds.maxX, side, bounds.maxZ);
+            case Z -> new AABB(bounds.minX, bounds.minY, side, bounds.maxX, bounds.maxY, side);
+        };
+    }
+
+    private static double area(AABB face, Direction.Axis axis) {
+        final double xSize = Math.max(0, face.getXsize());
+        final double ySize = Math.max(0, face.getYsize());
+        final double zSize = Math.max(0, face.getZsize());
+        return switch (axis) {
+            case X -> ySize * zSize;
+            case Y -> xSize * zSize;
+            case Z -> xSize * ySize;
+        };
+    }
+
+    /**
+     * @return The center of the face, moved slightly into the brush so that it's inside the brush's blocks
+     */
+    private static Vec3 faceCenter(AABB bounds, Direction dir) {
+        return bounds.getCenter().with(dir.getAxis(), MC2P2Util.getSide(bounds, dir)).relative(dir, -1);
+    }
+
+    private static void forEachCell(AABB bounds, LongConsumer action) {
+        final int minX = cell(bounds.minX), maxX = cell(bounds.maxX);
+        final int minY = cell(bounds.minY), maxY = cell(bounds.maxY);
+        final int minZ = cell(bounds.minZ), maxZ = cell(bounds.maxZ);
+        for (int z = minZ; z <= maxZ; z++) {
+            for (int y = minY; y <= maxY; y++) {
+                for (int x = minX; x <= maxX; x++) {
+                    action.accept(BlockPos.asLong(x, y, z));
+                }
+            }
+        }
+    }
+
+    private static int cell(double coord) {
+        return (int)Math.floor(coord / CELL_SIZE);
+    }
+
+    /**
+     * @param partiallyCovered The centers of faces that are only partly covered, in Source coordinates. Splitting
+     *                         these brushes along the covering brushes' edges would let the covered parts be culled.
+     */
+    public record Result(List<SimpleBrush> brushes, int culledFaces, List<Vec3> partiallyCovered) {
+    }
+}
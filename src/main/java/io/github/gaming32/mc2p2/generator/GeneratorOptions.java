@@ -0,0 +1,15 @@
+package io.github.gaming32.mc2p2.generator;
+
+/**
+ * @param lightmapLuxelBudget The most luxels the brush faces should have together. This can be set with the
+ *                            {@code mc2p2.lightmapLuxelBudget} system property.
+ */
+public record GeneratorOptions(BrushDecomposer decomposer, BrushBudget budget, long lightmapLuxelBudget) {
+    public static final GeneratorOptions DEFAULT = new GeneratorOptions(
+        BrushDecomposer.GROWING, BrushBudget.fromSystemProperties(), Long.getLong("mc2p2.lightmapLuxelBudget", 1 << 20)
+    );
+
+    public GeneratorOptions withDecomposer(BrushDecomposer decomposer) {
+        return new GeneratorOptions(decomposer, budget, lightmapLuxelBudget);
+    }
+}
@@ -0,0 +1,156 @@
+package io.github.gaming32.mc2p2.generator;
+
+import io.github.gaming32.mc2p2.util.AreaLayout;
+import io.github.gaming32.mc2p2.util.MC2P2Util;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import net.minecraft.core.Direction;
+import net.minecraft.world.level.levelgen.structure.BoundingBox;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+final class GreedyMeshDecomposition {
+    private GreedyMeshDecomposition() {
+    }
+
+    static List<BoundingBox> decompose(AreaLayout layout, BitSet positions, List<Direction> directions) {
+        final List<Direction.Axis> axes = directions.stream().map(Direction::getAxis).distinct().toList();
+        List<BoundingBox> result = null;
+        for (final List<Direction.Axis> order : permutations(axes)) {
+            final List<BoundingBox> boxes = merge(mesh(layout, positions, order), axes);
+            if (result == null || boxes.size() < result.size()) {
+                result = boxes;
+            }
+        }
+        return result;
+    }
+
+    private static List<BoundingBox> mesh(AreaLayout layout, BitSet positions, List<Direction.Axis> order) {
+        final BitSet remaining = (BitSet)positions.clone();
+        final int[] limit = {layout.maxX(), layout.maxY(), layout.maxZ()};
+        final List<BoundingBox> result = new ArrayList<>();
+        for (int i = remaining.nextSetBit(0); i >= 0; i = remaining.nextSetBit(i + 1)) {
+            // Everything before i in index order is already covered, so boxes only need to grow in the positive
+            // direction along each axis.
+            final int[] min = {layout.x(i), layout.y(i), layout.z(i)};
+            final int[] max = min.clone();
+            for (final Direction.Axis axis : order) {
+                final int a = axis.ordinal();
+                while (max[a] < limit[a]) {
+                    final int[] slabMin = min.clone();
+                    slabMin[a] = max[a] + 1;
+                    final int[] slabMax = max.clone();
+                    slabMax[a] = max[a] + 1;
+                    if (!allSet(layout, remaining, toBox(slabMin, slabMax))) break;
+                    max[a]++;
+                }
+            }
+            final BoundingBox box = toBox(min, max);
+            clear(layout, remaining, box);
+            result.add(box);
+        }
+        return result;
+    }
+
+    /**
+     * Repeatedly merges pairs of boxes where one box's maximum face along an axis exactly matches the other box's
+     * minimum face.
+     */
+    private static List<BoundingBox> merge(List<BoundingBox> boxes, List<Direction.Axis> axes) {
+        List<BoundingBox> current = boxes;
+        boolean merged = true;
+        while (merged) {
+            merged = false;
+            for (final Direction.Axis axis : axes) {
+                final Object2IntMap<Face> byMinFace = new Object2IntOpenHashMap<>(current.size());
+                byMinFace.defaultReturnValue(-1);
+                for (int i = 0; i < current.size(); i++) {
+                    byMinFace.put(Face.min(current.get(i), axis), i);
+                }
+                final BoundingBox[] result = current.toArray(BoundingBox[]::new);
+                for (int i = 0; i < result.length; i++) {
+                    if (result[i] == null) continue;
+                    final int other = byMinFace.getInt(Face.afterMax(result[i], axis));
+                    if (other == -1 || other == i || result[other] == null) continue;
+                    result[i] = MC2P2Util.copy(result[i]).encapsulate(result[other]);
+                    result[other] = null;
+                    merged = true;
+                }
+                final List<BoundingBox> compacted = new ArrayList<>(result.length);
+                for (final BoundingBox box : result) {
+                    if (box != null) {
+                        compacted.add(box);
+                    }
+                }
+                current = compacted;
+            }
+        }
+        return current;
+    }
+
+    private static boolean allSet(AreaLayout layout, BitSet set, BoundingBox box) {
+        for (int z = box.minZ(); z <= box.maxZ(); z++) {
+            for (int y = box.minY(); y <= box.maxY(); y++) {
+                final int from = layout.index(box.minX(), y, z);
+                if (set.nextClearBit(from) < from + box.getXSpan()) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static void clear(AreaLayout layout, BitSet set, BoundingBox box) {
+        for (int z = box.minZ(); z <= box.maxZ(); z++) {
+            for (int y = box.minY(); y <= box.maxY(); y++) {
+                final int from = layout.index(box.minX(), y, z);
+                set.clear(from, from + box.getXSpan());
+            }
+        }
+    }
+
+    private static BoundingBox toBox(int[] min, int[] max) {
+        return new BoundingBox(min[0], min[1], min[2], max[0], max[1], max[2]);
+    }
+
+    private static List<List<Direction.Axis>> permutations(List<Direction.Axis> axes) {
+        if (axes.size() <= 1) {
+            return List.of(axes);
+        }
+        final List<List<Direction.Axis>> result = new ArrayList<>();
+        for (final Direction.Axis first : axes) {
+            final List<Direction.Axis> rest = new ArrayList<>(axes);
+            rest.remove(first);
+            for (final List<Direction.Axis> permutation : permutations(rest)) {
+                final List<Direction.Axis> order = new ArrayList<>(axes.size());
+                order.add(first);
+                order.addAll(permutation);
+                result.add(order);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * A face perpendicular to {@code axis} at {@code position}, spanning the box's extents along the other two axes.
+     */
+    private record Face(Direction.Axis axis, int position, int minA, int maxA, int minB, int maxB) {
+        static Face min(BoundingBox box, Direction.Axis axis) {
+            return of(box, axis, MC2P2Util.getSide(box, Direction.fromAxisAndDirection(axis, Direction.AxisDirection.NEGATIVE)));
+        }
+
+        static Face afterMax(BoundingBox box, Direction.Axis axis) {
+            return of(box, axis, MC2P2Util.getSide(box, Direction.fromAxisAndDirection(axis, Direction.AxisDirection.POSITIVE)) + 1);
+        }
+
+        private static Face of(BoundingBox box, Direction.Axis axis, int position) {
+            return switch (axis) {
+                case X -> new Face(axis, position, box.minY(), box.maxY(), box.minZ(), box.maxZ());
+                case Y -> new Face(axis, position, box.minX(), box.maxX(), box.minZ(), box.maxZ());
+                case Z -> new Face(axis, position, box.minX(), box.maxX(), box.minY(), box.maxY());
+            };
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package io.github.gaming32.mc2p2.generator;
+
+import io.github.gaming32.mc2p2.util.AreaBitSet;
+import io.github.gaming32.mc2p2.util.AreaLayout;
+import io.github.gaming32.mc2p2.util.MC2P2Util;
+import io.github.gaming32.mc2p2.util.VolumeSums;
+import net.minecraft.core.Direction;
+import net.minecraft.world.level.levelgen.structure.BoundingBox;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.function.IntPredicate;
+
+final class GrowingDecomposition {
+    private GrowingDecomposition() {
+    }
+
+    static List<BoundingBox> decompose(AreaLayout layout, BitSet positions, List<Direction> directions) {
+        final BoundingBox area = layout.toBoundingBox();
+        final VolumeSums sums = VolumeSums.of(layout, positions);
+        final AreaBitSet used = new AreaBitSet(layout);
+        final List<BoundingBox> result = new ArrayList<>();
+        for (int i = positions.nextSetBit(0); i >= 0; i = positions.nextSetBit(i + 1)) {
+            if (!used.add(i)) continue;
+            result.add(grow(new BoundingBox(layout.toPos(i)), area, sums, used, directions));
+        }
+        return result;
+    }
+
+    private static BoundingBox grow(
+        BoundingBox brushBounds, BoundingBox area, VolumeSums sums, AreaBitSet used, List<Direction> directions
+    ) {
+        for (final Direction dir : directions) {
+            final int limit = Math.abs(MC2P2Util.getSide(area, dir) - MC2P2Util.getSide(brushBounds, dir));
+            final IntPredicate canGrow = amount -> {
+                final BoundingBox newBlocks = MC2P2Util.slab(brushBounds, dir, amount);
+                return sums.isFull(newBlocks) && !used.any(newBlocks);
+            };
+            // Gallop to find an amount that's too far, then binary search for the furthest amount that isn't
+            int good = 0;
+            int bad = limit + 1;
+            for (int amount = 1; amount <= limit; amount *= 2) {
+                if (!canGrow.test(amount)) {
+                    bad = amount;
+                    break;
+                }
+                good = amount;
+            }
+            while (bad - good > 1) {
+                final int amount = (good + bad) >>> 1;
+                if (canGrow.test(amount)) {
+                    good = amount;
+                } else {
+                    bad = amount;
+                }
+            }
+            if (good == 0) continue;
+            final BoundingBox newBlocks = MC2P2Util.slab(brushBounds, dir, good);
+            brushBounds.encapsulate(newBlocks);
+            used.fill(newBlocks);
+        }
+        return brushBounds;
+    }
+}
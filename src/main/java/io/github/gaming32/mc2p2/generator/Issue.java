@@ -0,0 +1,17 @@
+package io.github.gaming32.mc2p2.generator;
+
+import net.minecraft.core.BlockPos;
+import net.minecraft.network.chat.Component;
+
+import java.util.Collection;
+import java.util.List;
+
+public record Issue(IssueLevel level, Component message, Collection<BlockPos> blocks) {
+    public Issue {
+        blocks = List.copyOf(blocks);
+    }
+
+    public void report(IssueConsumer consumer) {
+        consumer.issue(level, message, blocks);
+    }
+}
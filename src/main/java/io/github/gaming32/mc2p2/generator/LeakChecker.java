@@ -0,0 +1,151 @@
+package io.github.gaming32.mc2p2.generator;
+
+import io.github.gaming32.mc2p2.util.MC2P2Util;
+import it.unimi.dsi.fastutil.doubles.DoubleOpenHashSet;
+import it.unimi.dsi.fastutil.doubles.DoubleSet;
+import it.unimi.dsi.fastutil.ints.IntArrayFIFOQueue;
+import net.minecraft.core.Direction;
+import net.minecraft.world.phys.AABB;
+import net.minecraft.world.phys.Vec3;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Checks whether the sealing brushes of a map separate its point entities from the void, the same way vbsp does. The
+ * brushes are rasterized into a grid whose cell edges are the distinct brush planes along each axis, so every cell is
+ * either fully solid or fully empty no matter how the brushes are sized.
+ */
+public final class LeakChecker {
+    /**
+     * The most cells the grid may have, since the flood fill takes a byte per cell. Defaults to 2^25, which is 32 MiB.
+     */
+    public static final int MAX_CELLS = Integer.getInteger("mc2p2.maxLeakCheckCells", 1 << 25);
+
+    private final double[] xs, ys, zs;
+    private final int xCells, yCells, zCells;
+    private final BitSet solid;
+
+    private LeakChecker(double[] xs, double[] ys, double[] zs, int cells, Collection<AABB> sealingBrushes) {
+        this.xs = xs;
+        this.ys = ys;
+        this.zs = zs;
+        xCells = Math.max(0, xs.length - 1);
+        yCells = Math.max(0, ys.length - 1);
+        zCells = Math.max(0, zs.length - 1);
+        solid = new BitSet(cells);
+        for (final AABB brush : sealingBrushes) {
+            final int minX = Arrays.binarySearch(xs, brush.minX), maxX = Arrays.binarySearch(xs, brush.maxX);
+            final int minY = Arrays.binarySearch(ys, brush.minY), maxY = Arrays.binarySearch(ys, brush.maxY);
+            final int minZ = Arrays.binarySearch(zs, brush.minZ), maxZ = Arrays.binarySearch(zs, brush.maxZ);
+            for (int z = minZ; z < maxZ; z++) {
+                for (int y = minY; y < maxY; y++) {
+                    final int from = index(minX, y, z);
+                    solid.set(from, from + maxX - minX);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return A checker for {@code sealingBrushes}, or {@code null} if their grid would have more than
+     * {@link #MAX_CELLS} cells
+     */
+    @Nullable
+    public static LeakChecker create(Collection<AABB> sealingBrushes) {
+        final double[] xs = planes(sealingBrushes, Direction.Axis.X);
+        final double[] ys = planes(sealingBrushes, Direction.Axis.Y);
+        final double[] zs = planes(sealingBrushes, Direction.Axis.Z);
+        final long cells = Math.multiplyExact(
+            Math.multiplyExact((long)Math.max(0, xs.length - 1), Math.max(0, ys.length - 1)), Math.max(0, zs.length - 1)
+        );
+        if (cells > MAX_CELLS) {
+            return null;
+        }
+        return new LeakChecker(xs, ys, zs, (int)cells, sealingBrushes);
+    }
+
+    private static double[] planes(Collection<AABB> brushes, Direction.Axis axis) {
+        final DoubleSet planes = new DoubleOpenHashSet();
+        for (final AABB brush : brushes) {
+            planes.add(brush.min(axis));
+            planes.add(brush.max(axis));
+        }
+        final double[] result = planes.toDoubleArray();
+        Arrays.sort(result);
+        return result;
+    }
+
+    /**
+     * Flood fills from every origin that isn't inside a sealing brush at once, so the first path that reaches the void
+     * is one of the shortest.
+     * @return The leak path from an origin to the edge of the void, or {@code null} if the map is sealed
+     */
+    @Nullable
+    public List<Vec3> findLeak(Collection<Vec3> origins) {
+        // Each visited cell stores the direction it was reached from, plus one, so that the path can be traced back
+        final byte[] cameFrom = new byte[Math.multiplyExact(Math.multiplyExact(xCells, yCells), zCells)];
+        final byte start = (byte)(MC2P2Util.DIRECTIONS.length + 1);
+        final IntArrayFIFOQueue queue = new IntArrayFIFOQueue();
+        for (final Vec3 origin : origins) {
+            final int x = cell(xs, origin.x), y = cell(ys, origin.y), z = cell(zs, origin.z);
+            if (x < 0 || y < 0 || z < 0) {
+                return List.of(origin);
+            }
+            final int index = index(x, y, z);
+            if (solid.get(index) || cameFrom[index] != 0) continue;
+            cameFrom[index] = start;
+            queue.enqueue(index);
+        }
+        while (!queue.isEmpty()) {
+            final int index = queue.dequeueInt();
+            final int x = index % xCells, y = index / xCells % yCells, z = index / xCells / yCells;
+            for (final Direction dir : MC2P2Util.DIRECTIONS) {
+                final int nx = x + dir.getStepX(), ny = y + dir.getStepY(), nz = z + dir.getStepZ();
+                if (nx < 0 || ny < 0 || nz < 0 || nx >= xCells || ny >= yCells || nz >= zCells) {
+                    return tracePath(cameFrom, index);
+                }
+                final int neighbor = index(nx, ny, nz);
+                if (solid.get(neighbor) || cameFrom[neighbor] != 0) continue;
+                cameFrom[neighbor] = (byte)(dir.ordinal() + 1);
+                queue.enqueue(neighbor);
+            }
+        }
+        return null;
+    }
+
+    private List<Vec3> tracePath(byte[] cameFrom, int end) {
+        final List<Vec3> result = new ArrayList<>();
+        int index = end;
+        while (true) {
+            final int x = index % xCells, y = index / xCells % yCells, z = index / xCells / yCells;
+            result.add(new Vec3((xs[x] + xs[x + 1]) / 2, (ys[y] + ys[y + 1]) / 2, (zs[z] + zs[z + 1]) / 2));
+            final int from = cameFrom[index] - 1;
+            if (from == MC2P2Util.DIRECTIONS.length) break;
+            final Direction back = MC2P2Util.DIRECTIONS[from].getOpposite();
+            index = index(x + back.getStepX(), y + back.getStepY(), z + back.getStepZ());
+        }
+        Collections.reverse(result);
+        return result;
+    }
+
+    /**
+     * @return The cell containing {@code coord}, or {@code -1} if it's outside the grid
+     */
+    private static int cell(double[] planes, double coord) {
+        if (planes.length < 2 || coord < planes[0] || coord >= planes[planes.length - 1]) {
+            return -1;
+        }
+        final int found = Arrays.binarySearch(planes, coord);
+        return found >= 0 ? found : -found - 2;
+    }
+
+    private int index(int x, int y, int z) {
+        return (z * yCells + y) * xCells + x;
+    }
+}
@@ -0,0 +1,147 @@
+package io.github.gaming32.mc2p2.generator;
+
+import io.github.gaming32.mc2p2.util.MC2P2Util;
+import io.github.gaming32.mc2p2.vmf.MaterialInfo;
+import io.github.gaming32.mc2p2.vmf.SimpleBrush;
+import net.minecraft.core.Direction;
+import net.minecraft.util.Mth;
+import net.minecraft.world.phys.AABB;
+import net.minecraft.world.phys.Vec3;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Picks a lightmap scale for every visible brush face, so that the total number of luxels vrad has to light stays
+ * within a budget. Every face's scale is a shared base scale multiplied by a factor for how little its lighting
+ * matters: large faces, ceilings, and faces far from the points of interest have larger factors, so they get coarser
+ * first. The base scale is the finest one that fits the budget. Scales are never finer than
+ * {@link SimpleBrush#DEFAULT_LIGHTMAP_SCALE}, so maps that fit the budget light exactly as before.
+ */
+public final class LightmapPlanner {
+    public static final int MIN_SCALE = SimpleBrush.DEFAULT_LIGHTMAP_SCALE;
+    public static final int MAX_SCALE = 128;
+    /**
+     * Faces this far from the nearest point of interest, in Source units, get lightmaps twice as coarse.
+     */
+    private static final double DISTANCE_FALLOFF = 16 * 64;
+    /**
+     * Faces larger than this, in square Source units, get coarser lightmaps. This is 8x8 blocks.
+     */
+    private static final double LARGE_FACE_AREA = 8 * 8 * 64 * 64;
+    private static final double CEILING_FACTOR = 2;
+    private static final int SEARCH_STEPS = 32;
+
+    private final List<SimpleBrush> brushes;
+    private final List<Face> faces = new ArrayList<>();
+    private double maxFactor = 1;
+
+    /**
+     * @param pointsOfInterest Where players are expected to be, in Source coordinates
+     */
+    public LightmapPlanner(List<SimpleBrush> brushes, List<Vec3> pointsOfInterest) {
+        this.brushes = brushes;
+        for (int i = 0; i < brushes.size(); i++) {
+            final SimpleBrush brush = brushes.get(i);
+            for (final Direction dir : MC2P2Util.DIRECTIONS) {
+                if (brush.materials().getOrDefault(dir, MaterialInfo.NODRAW).equals(MaterialInfo.NODRAW)) continue;
+                final double area = faceArea(brush.bounds(), dir);
+                final Vec3 center = brush.bounds().getCenter().with(dir.getAxis(), MC2P2Util.getSide(brush.bounds(), dir));
+                double factor = 1 + distanceToNearest(center, pointsOfInterest) / DISTANCE_FALLOFF;
+                factor *= Math.max(1, Math.sqrt(Math.sqrt(area / LARGE_FACE_AREA)));
+                if (dir == Direction.DOWN) {
+                    factor *= CEILING_FACTOR;
+                }
+                faces.add(new Face(i, dir, area, factor));
+                maxFactor = Math.max(maxFactor, factor);
+            }
+        }
+    }
+
+    /**
+     * @param luxelBudget The most luxels all faces together should have
+     * @return The planned brushes, which are still over the budget if it can't be met even at {@link #MAX_SCALE}
+     */
+    public Result plan(long luxelBudget) {
+        // The luxel count only goes down as the base scale goes up, so binary search for the smallest base that fits.
+        // At the lowest base, every face is at the minimum scale.
+        double low = MIN_SCALE / maxFactor;
+        double high = MAX_SCALE;
+        if (luxels(low) > luxelBudget) {
+            for (int i = 0; i < SEARCH_STEPS; i++) {
+                final double mid = (low + high) / 2;
+                if (luxels(mid) > luxelBudget) {
+                    low = mid;
+                } else {
+                    high = mid;
+                }
+            }
+        } else {
+            high = low;
+        }
+        final double base = high;
+        final List<Map<Direction, Integer>> scales = new ArrayList<>(brushes.size());
+        for (int i = 0; i < brushes.size(); i++) {
+            scales.add(new EnumMap<>(Direction.class));
+        }
+        int coarsenedFaces = 0;
+        for (final Face face : faces) {
+            final int scale = scale(base, face);
+            scales.get(face.brush).put(face.direction, scale);
+            if (scale > MIN_SCALE) {
+                coarsenedFaces++;
+            }
+        }
+        final List<SimpleBrush> result = new ArrayList<>(brushes.size());
+        for (int i = 0; i < brushes.size(); i++) {
+            final SimpleBrush brush = brushes.get(i);
+            result.add(new SimpleBrush(brush.bounds(), brush.materials(), scales.get(i)));
+        }
+        return new Result(result, coarsenedFaces, luxels(base));
+    }
+
+    private long luxels(double base) {
+        long result = 0;
+        for (final Face face : faces) {
+            final int scale = scale(base, face);
+            result += (long)Math.ceil(face.area / ((double)scale * scale));
+        }
+        return result;
+    }
+
+    /**
+     * Rounds to a power of two, since lightmap scales are usually powers of two and that keeps neighboring faces'
+     * luxels aligned.
+     */
+    private static int scale(double base, Face face) {
+        final double scale = Mth.clamp(base * face.factor, MIN_SCALE, MAX_SCALE);
+        return Mth.clamp(1 << (int)Math.round(Math.log(scale) / Math.log(2)), MIN_SCALE, MAX_SCALE);
+    }
+
+    private static double faceArea(AABB bounds, Direction direction) {
+        return switch (direction.getAxis()) {
+            case X -> bounds.getYsize() * bounds.getZsize();
+            case Y -> bounds.getXsize() * bounds.getZsize();
+            case Z -> bounds.getXsize() * bounds.getYsize();
+        };
+    }
+
+    private static double distanceToNearest(Vec3 pos, List<Vec3> points) {
+        double result = Double.POSITIVE_INFINITY;
+        for (final Vec3 point : points) {
+            result = Math.min(result, pos.distanceToSqr(point));
+        }
+        return points.isEmpty() ? 0 : Math.sqrt(result);
+    }
+
+    private record Face(int brush, Direction direction, double area, double factor) {
+    }
+
+    /**
+     * @param coarsenedFaces The number of faces with a scale above {@link #MIN_SCALE}
+     */
+    public record Result(List<SimpleBrush> brushes, int coarsenedFaces, long luxels) {
+    }
+}
@@ -2,9 +2,9 @@ package io.github.gaming32.mc2p2.generator;
 
 import com.demonwav.mcdev.annotations.Translatable;
 import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.LinkedHashMultimap;
-import com.google.common.collect.Maps;
-import com.google.common.collect.Multimap;
+import io.github.gaming32.mc2p2.util.AreaBitSet;
+import io.github.gaming32.mc2p2.util.AreaLayout;
+import io.github.gaming32.mc2p2.util.DirectionGrid;
 import io.github.gaming32.mc2p2.util.MC2P2Util;
 import io.github.gaming32.mc2p2.vmf.MaterialInfo;
 import io.github.gaming32.mc2p2.vmf.SimpleBrush;
@@ -14,14 +14,14 @@ import io.github.gaming32.mc2p2.vmf.SourceUtil;
 import it.unimi.dsi.fastutil.ints.Int2ObjectArrayMap;
 import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
 import it.unimi.dsi.fastutil.ints.IntIntPair;
+import it.unimi.dsi.fastutil.objects.Reference2IntLinkedOpenHashMap;
 import net.minecraft.Util;
 import net.minecraft.core.BlockPos;
 import net.minecraft.core.Direction;
 import net.minecraft.network.chat.Component;
-import net.minecraft.server.level.ServerLevel;
 import net.minecraft.util.Mth;
-import net.minecraft.world.entity.Entity;
-import net.minecraft.world.entity.decoration.ArmorStand;
+import net.minecraft.util.StringRepresentable;
+import net.minecraft.world.entity.EntityType;
 import net.minecraft.world.level.block.Block;
 import net.minecraft.world.level.block.Blocks;
 import net.minecraft.world.level.block.ButtonBlock;
@@ -34,19 +34,18 @@ import net.minecraft.world.level.block.state.properties.DoubleBlockHalf;
 import net.minecraft.world.level.levelgen.structure.BoundingBox;
 import net.minecraft.world.phys.AABB;
 import net.minecraft.world.phys.Vec3;
+import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.EnumMap;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.function.Function;
-import java.util.function.Predicate;
 
 public class MapGenerator {
     private static final Map<Block, MaterialSet> BRUSH_BLOCKS = ImmutableMap.of(
@@ -65,6 +64,14 @@ public class MapGenerator {
         Blocks.OAK_DOOR, "instances/p2editor/door_frame_white.vmf",
         Blocks.DARK_OAK_DOOR, "instances/p2editor/door_frame_black.vmf"
     );
+    /**
+     * The most blocks a full brush can have and still be classified as detail.
+     */
+    private static final int MAX_DETAIL_VOLUME = 8;
+    /**
+     * The thickness of areaportal and hint brushes, in blocks. This is 8 Source units.
+     */
+    private static final double THIN_SLAB_THICKNESS = 0.125;
     private static final Int2ObjectMap<LabFreeSpace> LAB_FREE_SPACES = Util.make(new Int2ObjectArrayMap<>(4), map -> {
         map.put(4, new LabFreeSpace(2, 2));
         map.put(3, new LabFreeSpace(3, 1));
@@ -72,32 +79,55 @@ public class MapGenerator {
         map.put(1, new LabFreeSpace(4, 1));
     });
 
-    private final ServerLevel level;
+    private final WorldSnapshot world;
     private final BoundingBox area;
+    private final AreaLayout layout;
     private final AABB aabb;
     private final IssueConsumer issueConsumer;
+    private final GeneratorOptions options;
 
     private final SourceMap.Builder map;
-    private final Set<BlockPos> usedBlocks = new HashSet<>();
-    private final Multimap<Block, BlockPos> blockLookup = LinkedHashMultimap.create();
+    private final AreaBitSet usedBlocks;
+    private BlockIndex blockLookup;
 
     private final List<SourceEntity.EntityConnection> autoConnections = new ArrayList<>();
 
     private final Map<BlockPos, String> entityNamesPerBlock = new HashMap<>();
     private int entityNameId = 1;
 
-    private final Map<BlockPos, Direction> thinBrushBlocks = new HashMap<>();
+    private final DirectionGrid thinBrushBlocks;
 
-    private final Map<BlockPos, BlockState> blockStateCache;
+    private final List<BrushGroup> brushGroups = new ArrayList<>();
+    private final List<DoorOpening> doorOpenings = new ArrayList<>();
+    /**
+     * The positions that end up as brushes, once hidden positions have been culled.
+     */
+    private BitSet solidBlocks;
+    @Nullable
+    private PlayableSpace playableSpace;
+    private final Reference2IntLinkedOpenHashMap<BrushDecomposer> brushCounts = new Reference2IntLinkedOpenHashMap<>();
+    /**
+     * The volumes that keep the inside of the map from leaking, in Source units. This is the sky above the area and
+     * every structural brush, plus the parts of the map that are sealed by instances.
+     */
+    private final List<AABB> sealingBrushes = new ArrayList<>();
+    /**
+     * Every brush added to the map besides the brush groups, such as the skybox, areaportals, and hints.
+     */
+    private final List<SimpleBrush> otherBrushes = new ArrayList<>();
+    @Nullable
+    private List<Vec3> leak;
 
-    public MapGenerator(ServerLevel level, BoundingBox area, IssueConsumer issueConsumer) {
-        this.level = level;
-        this.area = area;
+    public MapGenerator(WorldSnapshot world, GeneratorOptions options, IssueConsumer issueConsumer) {
+        this.world = world;
+        this.area = world.area();
+        this.layout = world.layout();
+        this.usedBlocks = new AreaBitSet(layout);
+        this.thinBrushBlocks = new DirectionGrid(layout);
         this.aabb = AABB.of(area);
         this.issueConsumer = issueConsumer;
+        this.options = options;
         this.map = initializeMap();
-
-        this.blockStateCache = Maps.newHashMapWithExpectedSize(area.getXSpan() * area.getYSpan() * area.getZSpan());
     }
 
     public SourceMap generate() {
@@ -107,22 +137,46 @@ public class MapGenerator {
         generateDoors();
         generateButtons();
         scanForThinBrushes();
+        cullHiddenBrushes();
+        // These come before the brush groups are emitted, so that their brushes count towards the budget
+        generateAreaportals();
+        generateHints();
+        emitBrushes();
+        reportBrushCounts();
         convertEntities();
         for (final var entry : blockLookup.asMap().entrySet()) {
+            if (entry.getValue().isEmpty()) continue;
             issueConsumer.issue(
                 IssueLevel.INFO,
                 Component.translatable("mc2p2.issue.message.unknown_block", entry.getKey().getName()),
-                entry.getValue()
+                layout.toPositions(entry.getValue())
             );
         }
         if (!autoConnections.isEmpty()) {
             generateLogicAuto();
         }
-        return map.build();
+        final SourceMap result = map.build();
+        checkForLeaks(result);
+        return result;
+    }
+
+    /**
+     * @return Whether the last generated map leaks, in which case it shouldn't be compiled
+     */
+    public boolean isLeaking() {
+        return leak != null;
+    }
+
+    /**
+     * @return The path from an entity to the void if the last generated map leaks, in Source units
+     */
+    @Nullable
+    public List<Vec3> getLeakPath() {
+        return leak;
     }
 
     private void generateButtons() {
-        for (final BlockPos button : blockLookup.removeAll(Blocks.OAK_BUTTON)) {
+        for (final BlockPos button : layout.toPositions(blockLookup.removeAll(Blocks.OAK_BUTTON))) {
             final BlockState state = getBlockState(button);
             final Direction facing = state.getValue(ButtonBlock.FACING);
             final AttachFace face = state.getValue(ButtonBlock.FACE);
@@ -147,9 +201,8 @@ public class MapGenerator {
 
     @SuppressWarnings("deprecation")
     private void generateLabs() {
-        final Collection<BlockPos> glassBlocks = blockLookup.get(Blocks.GLASS);
-        for (final BlockPos pane : blockLookup.removeAll(Blocks.GLASS_PANE)) {
-            if (usedBlocks.contains(pane)) continue;
+        for (final BlockPos pane : layout.toPositions(blockLookup.removeAll(Blocks.GLASS_PANE))) {
+            if (usedBlocks.get(pane)) continue;
             final Direction facing = getGlassPaneDirection(pane, true);
             if (facing == null) continue;
             boolean foundMatch = false;
@@ -160,15 +213,10 @@ public class MapGenerator {
                 );
                 if (match == null) continue;
                 foundMatch = true;
-                BlockPos.betweenClosedStream(match)
-                    .map(BlockPos::immutable)
-                    .forEach(usedBlocks::add);
-                BlockPos.betweenClosedStream(MC2P2Util.moved(match, facing.getOpposite()))
-                    .map(BlockPos::immutable)
-                    .forEach(e -> {
-                        usedBlocks.add(e);
-                        glassBlocks.remove(e);
-                    });
+                usedBlocks.fill(match);
+                final BoundingBox glass = MC2P2Util.moved(match, facing.getOpposite());
+                usedBlocks.fill(glass);
+                BlockPos.betweenClosedStream(glass).forEach(e -> blockLookup.remove(Blocks.GLASS, e));
                 final LabFreeSpace labFreeSpace = LAB_FREE_SPACES.get(width);
                 final boolean hasRoomBehind = BlockPos.betweenClosedStream(
                     MC2P2Util.moved(match, facing.getOpposite(), labFreeSpace.depth)
@@ -183,16 +231,16 @@ public class MapGenerator {
                         List.of(pane)
                     );
                 }
-                BlockPos.betweenClosedStream(
-                    MC2P2Util.copy(match)
-                        .encapsulate(new BlockPos(match.minX(), match.minY() - 1, match.minZ()).relative(facing.getCounterClockWise()))
-                        .encapsulate(new BlockPos(match.maxX(), match.maxY() + labFreeSpace.height, match.maxZ()).relative(facing.getClockWise()))
-                ).filter(p -> !match.isInside(p)).forEach(adjacentPos -> {
+                final BoundingBox frame = MC2P2Util.copy(match)
+                    .encapsulate(new BlockPos(match.minX(), match.minY() - 1, match.minZ()).relative(facing.getCounterClockWise()))
+                    .encapsulate(new BlockPos(match.maxX(), match.maxY() + labFreeSpace.height, match.maxZ()).relative(facing.getClockWise()));
+                // The instance seals the window and the frame around it, which is only covered by detail brushes
+                sealingBrushes.add(fullBrushBounds(MC2P2Util.copy(frame).encapsulate(glass)));
+                BlockPos.betweenClosedStream(frame).filter(p -> !match.isInside(p)).forEach(adjacentPos -> {
                     final Block adjacentBlock = getBlockState(adjacentPos).getBlock();
                     if (!BRUSH_BLOCKS.containsKey(adjacentBlock)) return;
-                    final BlockPos immutable = adjacentPos.immutable();
-                    blockLookup.remove(adjacentBlock, immutable);
-                    thinBrushBlocks.put(immutable, facing);
+                    blockLookup.remove(adjacentBlock, adjacentPos);
+                    thinBrushBlocks.set(adjacentPos, facing);
                 });
                 map.entity(SourceEntity.builder("func_instance")
                     .origin(SourceUtil.transform(aabb, new Vec3(match.minX(), match.minY() + 1, match.minZ()).relative(facing.getClockWise(), 0.5 * width)))
@@ -257,16 +305,26 @@ public class MapGenerator {
         return null;
     }
 
+    private List<Vec3> getSpawnPoints() {
+        final List<Vec3> result = new ArrayList<>();
+        for (final WorldSnapshot.EntitySnapshot entity : world.entities()) {
+            if (entity.type() == EntityType.ARMOR_STAND) {
+                result.add(entity.position());
+            }
+        }
+        return result;
+    }
+
     private void convertEntities() {
-        for (final Entity entity : level.getEntities(null, aabb)) {
-            if (entity instanceof ArmorStand armorStand) {
+        for (final WorldSnapshot.EntitySnapshot entity : world.entities()) {
+            if (entity.type() == EntityType.ARMOR_STAND) {
                 map.entity(SourceEntity.builder("info_player_start")
-                    .origin(SourceUtil.transform(aabb, armorStand.position()))
-                    .angles(new Vec3(0, SourceUtil.transformRotation(armorStand.getYRot()), 0))
+                    .origin(SourceUtil.transform(aabb, entity.position()))
+                    .angles(new Vec3(0, SourceUtil.transformRotation(entity.yRot()), 0))
                     .build()
                 );
                 map.entity(SourceEntity.builder("weapon_portalgun")
-                    .origin(SourceUtil.transform(aabb, armorStand.position()))
+                    .origin(SourceUtil.transform(aabb, entity.position()))
                     .property("CanFirePortal1", "1")
                     .property("CanFirePortal2", "1")
                     .build()
@@ -285,7 +343,7 @@ public class MapGenerator {
 
     private void generateDoors() {
         for (final var doorBlockType : DOOR_BLOCKS.entrySet()) {
-            for (final BlockPos door : blockLookup.removeAll(doorBlockType.getKey())) {
+            for (final BlockPos door : layout.toPositions(blockLookup.removeAll(doorBlockType.getKey()))) {
                 if (!usedBlocks.add(door)) continue;
                 final BlockState state = getBlockState(door);
                 if (state.getValue(DoorBlock.HALF) != DoubleBlockHalf.LOWER) continue;
@@ -345,7 +403,13 @@ public class MapGenerator {
                     }
                     autoConnections.add(new SourceEntity.EntityConnection(name, "Open"));
                 }
-                usedBlocks.addAll(doorBlocks);
+                doorBlocks.forEach(usedBlocks::add);
+                final DoorOpening opening = new DoorOpening(
+                    name, BoundingBox.fromCorners(door, neighborPos.above()), facing,
+                    state.getValue(DoorBlock.OPEN) || neighbor.getValue(DoorBlock.OPEN)
+                );
+                doorOpenings.add(opening);
+                sealingBrushes.add(fullBrushBounds(opening.cells));
                 for (final BlockPos doorBlock : doorBlocks) {
                     if (doorBlock != door) {
                         entityNamesPerBlock.put(doorBlock, name);
@@ -356,97 +420,486 @@ public class MapGenerator {
     }
 
     private void initializeBlockLookup() {
-        BlockPos.betweenClosedStream(area).forEach(pos -> {
-            final BlockState state = getBlockState(pos);
-            if (state.isAir()) return;
-            blockLookup.put(state.getBlock(), pos.immutable());
-        });
+        blockLookup = BlockIndex.build(world, state -> !state.isAir());
     }
 
     private void scanForBrushes() {
         final List<Direction> directions = Arrays.asList(MC2P2Util.DIRECTIONS);
         for (final var brushBlock : BRUSH_BLOCKS.entrySet()) {
-            final Collection<BlockPos> inBlock = blockLookup.removeAll(brushBlock.getKey());
-            for (final BlockPos pos : inBlock) {
-                if (!usedBlocks.add(pos)) continue;
-                scanBrush(
-                    pos, inBlock::contains, brushBlock.getValue(), directions,
-                    bounds -> new AABB(
-                        SourceUtil.transform(aabb, new Vec3(bounds.minX(), bounds.minY(), bounds.minZ())),
-                        SourceUtil.transform(aabb, new Vec3(bounds.maxX() + 1, bounds.maxY() + 1, bounds.maxZ() + 1))
-                    )
-                );
-            }
+            addBrushGroup(new BrushGroup(
+                blockLookup.removeAll(brushBlock.getKey()), directions, null, brushBlock.getValue().map
+            ));
         }
     }
 
     private void scanForThinBrushes() {
-        for (final var thinBrush : thinBrushBlocks.entrySet()) {
-            if (!usedBlocks.add(thinBrush.getKey())) continue;
-            final Block targetBlock = getBlockState(thinBrush.getKey()).getBlock();
-            final Direction targetDir = thinBrush.getValue();
-            scanBrush(
-                thinBrush.getKey(),
-                pos -> getBlockState(pos).is(targetBlock) && thinBrushBlocks.get(pos) == targetDir,
-                BRUSH_BLOCKS.get(targetBlock), MC2P2Util.ADJACENT_DIRECTIONS.get(targetDir),
-                bounds -> {
-                    if (targetDir.getAxisDirection() == Direction.AxisDirection.POSITIVE) {
-                        return new AABB(
-                            SourceUtil.transform(aabb, new Vec3(
-                                bounds.minX() + targetDir.getStepX() * 0.75,
-                                bounds.minY() + targetDir.getStepY() * 0.75,
-                                bounds.minZ() + targetDir.getStepZ() * 0.75
-                            )),
-                            SourceUtil.transform(aabb, new Vec3(bounds.maxX() + 1, bounds.maxY() + 1, bounds.maxZ() + 1))
-                        );
-                    } else {
-                        return new AABB(
-                            SourceUtil.transform(aabb, new Vec3(bounds.minX(), bounds.minY(), bounds.minZ())),
-                            SourceUtil.transform(aabb, new Vec3(
-                                // The step is negative, so use addition
-                                bounds.maxX() + 1 + targetDir.getStepX() * 0.75,
-                                bounds.maxY() + 1 + targetDir.getStepY() * 0.75,
-                                bounds.maxZ() + 1 + targetDir.getStepZ() * 0.75
-                            ))
-                        );
-                    }
+        // Thin brushes can only be merged with neighbors of the same block that are thin in the same direction
+        final Map<Block, Map<Direction, BitSet>> groups = new LinkedHashMap<>();
+        for (int i = thinBrushBlocks.next(0); i >= 0; i = thinBrushBlocks.next(i + 1)) {
+            final Direction targetDir = thinBrushBlocks.get(i);
+            assert targetDir != null;
+            groups.computeIfAbsent(world.get(i).getBlock(), k -> new EnumMap<>(Direction.class))
+                .computeIfAbsent(targetDir, k -> new BitSet())
+                .set(i);
+        }
+        for (final var blockGroup : groups.entrySet()) {
+            final MaterialSet materials = BRUSH_BLOCKS.get(blockGroup.getKey());
+            for (final var group : blockGroup.getValue().entrySet()) {
+                addBrushGroup(new BrushGroup(
+                    group.getValue(), MC2P2Util.ADJACENT_DIRECTIONS.get(group.getKey()), group.getKey(), materials.map
+                ));
+            }
+        }
+    }
+
+    private void addBrushGroup(BrushGroup group) {
+        final BitSet positions = group.positions;
+        positions.andNot(usedBlocks.toBitSet());
+        for (int i = positions.nextSetBit(0); i >= 0; i = positions.nextSetBit(i + 1)) {
+            usedBlocks.add(i);
+        }
+        brushGroups.add(group);
+    }
+
+    /**
+     * Removes solid positions that don't share a face with any position reachable from a spawn point. The remaining
+     * positions still seal the reachable space, since every position next to it is kept.
+     */
+    private void cullHiddenBrushes() {
+        final BitSet blocked = new BitSet();
+        for (final BrushGroup group : brushGroups) {
+            blocked.or(group.positions);
+        }
+        solidBlocks = blocked;
+        final List<BlockPos> spawns = getSpawnPoints().stream().map(BlockPos::containing).toList();
+        playableSpace = PlayableSpace.flood(layout, blocked, spawns);
+        if (playableSpace.isEmpty()) {
+            issue(IssueLevel.WARN, "no_playable_space", spawns);
+            return;
+        }
+        int culled = 0;
+        for (final BrushGroup group : brushGroups) {
+            if (group.thinDirection != null) continue;
+            final BitSet bounding = playableSpace.bounding(group.positions);
+            culled += group.positions.cardinality() - bounding.cardinality();
+            group.positions.and(bounding);
+        }
+        if (culled > 0) {
+            // Culled positions won't have brushes, so they can't seal areaportals anymore
+            solidBlocks = new BitSet();
+            for (final BrushGroup group : brushGroups) {
+                solidBlocks.or(group.positions);
+            }
+            issueConsumer.issue(
+                IssueLevel.INFO,
+                Component.translatable("mc2p2.issue.message.hidden_blocks_culled", culled),
+                List.of()
+            );
+        }
+    }
+
+    /**
+     * Decomposes the brush groups and adds them to the map. If the brushes don't fit in the budget, coarser
+     * decompositions are tried in {@link Coarsening} order until one fits, falling back to the one with the fewest
+     * brushes.
+     */
+    private void emitBrushes() {
+        final BrushBudget budget = options.budget();
+        List<GeneratedBrush> chosen = null;
+        Coarsening chosenCoarsening = null;
+        BrushBudget.Usage chosenUsage = null;
+        for (final Coarsening coarsening : Coarsening.values()) {
+            if (coarsening == Coarsening.BEST_DECOMPOSITION && options.decomposer() == BrushDecomposer.BEST) continue;
+            final List<GeneratedBrush> brushes = decomposeBrushGroups(coarsening);
+            final List<SimpleBrush> allBrushes = new ArrayList<>(otherBrushes);
+            brushes.forEach(brush -> allBrushes.add(brush.brush));
+            final BrushBudget.Usage usage = BrushBudget.Usage.of(allBrushes);
+            final boolean fits = budget.fits(usage);
+            if (chosen == null || fits || usage.brushes() < chosenUsage.brushes()) {
+                chosen = brushes;
+                chosenCoarsening = coarsening;
+                chosenUsage = usage;
+            }
+            if (fits) break;
+        }
+        assert chosen != null;
+        if (chosenCoarsening != Coarsening.NONE) {
+            issueConsumer.issue(
+                IssueLevel.WARN,
+                Component.translatable(
+                    "mc2p2.issue.message.brushes_coarsened",
+                    Component.translatable("mc2p2.coarsening." + chosenCoarsening.getSerializedName()),
+                    chosenUsage.brushes(), chosenUsage.sides(), chosenUsage.planes()
+                ),
+                List.of()
+            );
+        }
+        if (!budget.fits(chosenUsage)) {
+            issueConsumer.issue(
+                IssueLevel.ERROR,
+                Component.translatable(
+                    "mc2p2.issue.message.brush_budget_exceeded",
+                    chosenUsage.brushes(), budget.maxBrushes(),
+                    chosenUsage.sides(), budget.maxSides(),
+                    chosenUsage.planes(), budget.maxPlanes()
+                ),
+                List.of()
+            );
+        }
+        final FaceOcclusion.Result occlusion = new FaceOcclusion(chosen.stream().map(GeneratedBrush::brush).toList(), new AABB(
+            0, 0, 0, area.getXSpan() * 64, area.getYSpan() * 64, area.getZSpan() * 64
+        )).cull();
+        if (occlusion.culledFaces() > 0) {
+            issueConsumer.issue(
+                IssueLevel.INFO,
+                Component.translatable("mc2p2.issue.message.covered_faces_culled", occlusion.culledFaces()),
+                List.of()
+            );
+        }
+        if (!occlusion.partiallyCovered().isEmpty()) {
+            issue(
+                IssueLevel.INFO, "partially_covered_faces",
+                occlusion.partiallyCovered().stream()
+                    .map(center -> BlockPos.containing(SourceUtil.untransform(aabb, center)))
+                    .distinct()
+                    .toList()
+            );
+        }
+        final List<Vec3> pointsOfInterest = getSpawnPoints().stream().map(pos -> SourceUtil.transform(aabb, pos)).toList();
+        final LightmapPlanner.Result lightmaps = new LightmapPlanner(occlusion.brushes(), pointsOfInterest)
+            .plan(options.lightmapLuxelBudget());
+        if (lightmaps.luxels() > options.lightmapLuxelBudget()) {
+            issueConsumer.issue(
+                IssueLevel.WARN,
+                Component.translatable(
+                    "mc2p2.issue.message.lightmaps_over_budget", lightmaps.luxels(), options.lightmapLuxelBudget()
+                ),
+                List.of()
+            );
+        } else if (lightmaps.coarsenedFaces() > 0) {
+            issueConsumer.issue(
+                IssueLevel.INFO,
+                Component.translatable(
+                    "mc2p2.issue.message.lightmaps_coarsened", lightmaps.coarsenedFaces(), lightmaps.luxels()
+                ),
+                List.of()
+            );
+        }
+        // Brush order is kept by every pass, so the detail flags still line up
+        final SourceEntity.Builder detail = SourceEntity.builder("func_detail");
+        int detailCount = 0;
+        for (int i = 0; i < chosen.size(); i++) {
+            if (chosen.get(i).detail) {
+                detail.brush(lightmaps.brushes().get(i));
+                detailCount++;
+            } else {
+                map.brush(lightmaps.brushes().get(i));
+                sealingBrushes.add(lightmaps.brushes().get(i).bounds());
+            }
+        }
+        if (detailCount > 0) {
+            map.entity(detail.build());
+            issueConsumer.issue(
+                IssueLevel.INFO,
+                Component.translatable("mc2p2.issue.message.detail_brushes", detailCount),
+                List.of()
+            );
+        }
+    }
+
+    private List<GeneratedBrush> decomposeBrushGroups(Coarsening coarsening) {
+        final List<GeneratedBrush> result = new ArrayList<>();
+        if (coarsening == Coarsening.NONE) {
+            for (final BrushGroup group : brushGroups) {
+                for (final BoundingBox bounds : decompose(group.positions, group.directions)) {
+                    result.add(generateBrush(group, bounds));
+                }
+            }
+            return result;
+        }
+        BitSet hidden = null;
+        if (coarsening.hidesInterior) {
+            // Solid cells from every material are merged, since the interior doesn't have a visible material
+            final BitSet solid = new BitSet();
+            for (final BrushGroup group : brushGroups) {
+                if (group.thinDirection == null) {
+                    solid.or(group.positions);
+                }
+            }
+            hidden = hiddenCells(solid);
+            if (coarsening == Coarsening.NODRAW_CORE) {
+                final List<Direction> directions = Arrays.asList(MC2P2Util.DIRECTIONS);
+                for (final BoundingBox bounds : BrushDecomposer.BEST.decompose(layout, hidden, directions)) {
+                    result.add(new GeneratedBrush(new SimpleBrush(fullBrushBounds(bounds), Map.of()), false));
                 }
+            }
+        }
+        for (final BrushGroup group : brushGroups) {
+            BitSet positions = group.positions;
+            if (hidden != null && group.thinDirection == null) {
+                positions = (BitSet)positions.clone();
+                positions.andNot(hidden);
+            }
+            for (final BoundingBox bounds : BrushDecomposer.BEST.decompose(layout, positions, group.directions)) {
+                result.add(generateBrush(group, bounds));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Places a {@code func_areaportal} in every door opening, controlled by the door. An areaportal only works if it
+     * seals the opening, so doors that aren't surrounded by brushes are skipped.
+     */
+    private void generateAreaportals() {
+        if (solidBlocks == null) return;
+        for (final DoorOpening door : doorOpenings) {
+            if (!isSealedOpening(door)) {
+                issue(IssueLevel.WARN, "door_not_sealed", door.cells.getCenter());
+                continue;
+            }
+            final SimpleBrush brush = new SimpleBrush(
+                thinSlabBounds(door.cells, door.facing.getAxis()),
+                MaterialInfo.ofAllDirections(MaterialInfo.AREAPORTAL)
+            );
+            otherBrushes.add(brush);
+            map.entity(SourceEntity.builder("func_areaportal")
+                .property("target", door.name)
+                .property("StartOpen", door.open ? "1" : "0")
+                .property("PortalVersion", "1")
+                .brush(brush)
+                .build()
             );
         }
     }
 
-    @SuppressWarnings("deprecation")
-    private void scanBrush(
-        BlockPos start,
-        Predicate<BlockPos> inBlock,
-        MaterialSet materials,
-        List<Direction> directions,
-        Function<BoundingBox, AABB> boundsTransformer
-    ) {
-        final BoundingBox brushBounds = new BoundingBox(start);
-        for (final Direction dir : directions) {
-            final int end = MC2P2Util.getSide(area, dir);
-            while (MC2P2Util.getSide(brushBounds, dir) != end) {
-                final BoundingBox newBlocks = MC2P2Util.oneSided(brushBounds, dir).move(dir.getNormal());
-                if (BlockPos.betweenClosedStream(newBlocks).anyMatch(b -> usedBlocks.contains(b) || !inBlock.test(b))) {
-                    break;
+    private boolean isSealedOpening(DoorOpening door) {
+        final BoundingBox ring = door.cells.inflatedBy(1);
+        for (final BlockPos pos : BlockPos.betweenClosed(
+            switch (door.facing.getAxis()) {
+                case X -> new BoundingBox(door.cells.minX(), ring.minY(), ring.minZ(), door.cells.maxX(), ring.maxY(), ring.maxZ());
+                case Y -> new BoundingBox(ring.minX(), door.cells.minY(), ring.minZ(), ring.maxX(), door.cells.maxY(), ring.maxZ());
+                case Z -> new BoundingBox(ring.minX(), ring.minY(), door.cells.minZ(), ring.maxX(), ring.maxY(), door.cells.maxZ());
+            }
+        )) {
+            if (door.cells.isInside(pos)) continue;
+            if (!layout.contains(pos) || !solidBlocks.get(layout.index(pos))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Places hint brushes in the openings between rooms, so that vvis splits the visleafs there.
+     */
+    private void generateHints() {
+        if (playableSpace == null || playableSpace.isEmpty()) return;
+        final BitSet doorCells = new BitSet();
+        for (final DoorOpening door : doorOpenings) {
+            for (final BlockPos pos : BlockPos.betweenClosed(door.cells)) {
+                doorCells.set(layout.index(pos));
+            }
+        }
+        final List<ChokepointFinder.Opening> openings = new ChokepointFinder(layout, playableSpace, doorCells).find();
+        for (final ChokepointFinder.Opening opening : openings) {
+            final Map<Direction, MaterialInfo> materials = MaterialInfo.ofAllDirections(MaterialInfo.SKIP);
+            materials.put(Direction.fromAxisAndDirection(opening.axis(), Direction.AxisDirection.POSITIVE), MaterialInfo.HINT);
+            materials.put(Direction.fromAxisAndDirection(opening.axis(), Direction.AxisDirection.NEGATIVE), MaterialInfo.HINT);
+            final SimpleBrush brush = new SimpleBrush(thinSlabBounds(opening.cells(), opening.axis()), materials);
+            otherBrushes.add(brush);
+            map.brush(brush);
+        }
+        if (!openings.isEmpty()) {
+            issueConsumer.issue(
+                IssueLevel.INFO,
+                Component.translatable("mc2p2.issue.message.hints_placed", openings.size()),
+                List.of()
+            );
+        }
+    }
+
+    /**
+     * @return A slab {@value #THIN_SLAB_THICKNESS} blocks thick through the middle of {@code cells} along {@code axis}
+     */
+    private AABB thinSlabBounds(BoundingBox cells, Direction.Axis axis) {
+        final double inset = (1 - THIN_SLAB_THICKNESS) / 2;
+        return new AABB(
+            SourceUtil.transform(aabb, new Vec3(
+                cells.minX() + (axis == Direction.Axis.X ? inset : 0),
+                cells.minY() + (axis == Direction.Axis.Y ? inset : 0),
+                cells.minZ() + (axis == Direction.Axis.Z ? inset : 0)
+            )),
+            SourceUtil.transform(aabb, new Vec3(
+                cells.maxX() + 1 - (axis == Direction.Axis.X ? inset : 0),
+                cells.maxY() + 1 - (axis == Direction.Axis.Y ? inset : 0),
+                cells.maxZ() + 1 - (axis == Direction.Axis.Z ? inset : 0)
+            ))
+        );
+    }
+
+    private GeneratedBrush generateBrush(BrushGroup group, BoundingBox bounds) {
+        return new GeneratedBrush(toBrush(group, bounds), isDetail(group, bounds));
+    }
+
+    /**
+     * Detail brushes don't split visleafs, so they're only safe for brushes that don't seal the playable space off
+     * from anything. Thin brushes only line lab windows, which are sealed by the lab instances. Other brushes are
+     * detail if they're small and every position next to them is either solid or reachable, like a pillar or a
+     * ledge.
+     */
+    private boolean isDetail(BrushGroup group, BoundingBox bounds) {
+        if (group.thinDirection != null) {
+            return true;
+        }
+        if (playableSpace == null || playableSpace.isEmpty()) {
+            return false;
+        }
+        if (bounds.getXSpan() * bounds.getYSpan() * bounds.getZSpan() > MAX_DETAIL_VOLUME) {
+            return false;
+        }
+        for (final DoorOpening door : doorOpenings) {
+            // Areaportals have to be sealed by structural brushes
+            if (door.cells.inflatedBy(1).intersects(bounds)) {
+                return false;
+            }
+        }
+        boolean touchesReachable = false;
+        for (final Direction dir : MC2P2Util.DIRECTIONS) {
+            for (final BlockPos pos : BlockPos.betweenClosed(MC2P2Util.slab(bounds, dir, 1))) {
+                if (!layout.contains(pos)) {
+                    return false;
+                }
+                final int index = layout.index(pos);
+                if (playableSpace.isReachable(index)) {
+                    touchesReachable = true;
+                } else if (!solidBlocks.get(index)) {
+                    return false;
                 }
-                brushBounds.encapsulate(newBlocks);
-                BlockPos.betweenClosedStream(newBlocks).forEach(p -> usedBlocks.add(p.immutable()));
             }
         }
-        map.brush(new SimpleBrush(boundsTransformer.apply(brushBounds), materials.map));
+        return touchesReachable;
     }
 
-    private BlockState getBlockState(BlockPos pos) {
-        if (!area.isInside(pos)) {
-            return Blocks.VOID_AIR.defaultBlockState();
+    /**
+     * @return The cells of {@code solid} that are surrounded by {@code solid} on every side. Neighbors outside the area
+     * count as solid, since the outside of the area is never visible.
+     */
+    private BitSet hiddenCells(BitSet solid) {
+        final BitSet result = new BitSet();
+        final BlockPos.MutableBlockPos pos = new BlockPos.MutableBlockPos();
+        final BlockPos.MutableBlockPos neighbor = new BlockPos.MutableBlockPos();
+        cells:
+        for (int i = solid.nextSetBit(0); i >= 0; i = solid.nextSetBit(i + 1)) {
+            layout.setPos(pos, i);
+            for (final Direction dir : MC2P2Util.DIRECTIONS) {
+                neighbor.setWithOffset(pos, dir);
+                if (layout.contains(neighbor) && !solid.get(layout.index(neighbor))) continue cells;
+            }
+            result.set(i);
+        }
+        return result;
+    }
+
+    private AABB fullBrushBounds(BoundingBox bounds) {
+        return new AABB(
+            SourceUtil.transform(aabb, new Vec3(bounds.minX(), bounds.minY(), bounds.minZ())),
+            SourceUtil.transform(aabb, new Vec3(bounds.maxX() + 1, bounds.maxY() + 1, bounds.maxZ() + 1))
+        );
+    }
+
+    private AABB thinBrushBounds(BoundingBox bounds, Direction targetDir) {
+        if (targetDir.getAxisDirection() == Direction.AxisDirection.POSITIVE) {
+            return new AABB(
+                SourceUtil.transform(aabb, new Vec3(
+                    bounds.minX() + targetDir.getStepX() * 0.75,
+                    bounds.minY() + targetDir.getStepY() * 0.75,
+                    bounds.minZ() + targetDir.getStepZ() * 0.75
+                )),
+                SourceUtil.transform(aabb, new Vec3(bounds.maxX() + 1, bounds.maxY() + 1, bounds.maxZ() + 1))
+            );
+        } else {
+            return new AABB(
+                SourceUtil.transform(aabb, new Vec3(bounds.minX(), bounds.minY(), bounds.minZ())),
+                SourceUtil.transform(aabb, new Vec3(
+                    // The step is negative, so use addition
+                    bounds.maxX() + 1 + targetDir.getStepX() * 0.75,
+                    bounds.maxY() + 1 + targetDir.getStepY() * 0.75,
+                    bounds.maxZ() + 1 + targetDir.getStepZ() * 0.75
+                ))
+            );
+        }
+    }
+
+    /**
+     * Splits {@code positions} into brush boxes with the selected {@link BrushDecomposer}.
+     * {@link BrushDecomposer#GROWING} is always run too, so that the brush counts can be compared.
+     */
+    private List<BoundingBox> decompose(BitSet positions, List<Direction> directions) {
+        final BrushDecomposer selected = options.decomposer();
+        final List<BrushDecomposer> decomposers = selected == BrushDecomposer.BEST
+            ? BrushDecomposer.CONCRETE
+            : selected == BrushDecomposer.GROWING ? List.of(selected) : List.of(BrushDecomposer.GROWING, selected);
+        List<BoundingBox> result = null;
+        for (final BrushDecomposer decomposer : decomposers) {
+            final List<BoundingBox> boxes = decomposer.decompose(layout, positions, directions);
+            brushCounts.addTo(decomposer, boxes.size());
+            if (decomposer == selected || (selected == BrushDecomposer.BEST && (result == null || boxes.size() < result.size()))) {
+                result = boxes;
+            }
         }
-        BlockState state = blockStateCache.get(pos);
-        if (state == null) {
-            blockStateCache.put(pos.immutable(), state = level.getBlockState(pos));
+        assert result != null;
+        if (selected == BrushDecomposer.BEST) {
+            brushCounts.addTo(selected, result.size());
         }
-        return state;
+        return result;
+    }
+
+    /**
+     * Flood fills from every point entity to check whether any of them can reach the void. The rest of the skybox shell
+     * would seal any map, so only the sky above the area seals it, and chambers may be open to the sky but not to the
+     * sides or bottom of the area.
+     */
+    private void checkForLeaks(SourceMap result) {
+        final List<Vec3> origins = result.entities()
+            .stream()
+            // Logic entities are left at the origin, since their position doesn't matter
+            .filter(entity -> entity.brushes().isEmpty() && !entity.clazz().equals("func_instance"))
+            .filter(entity -> !entity.clazz().startsWith("logic_"))
+            .map(SourceEntity::origin)
+            .toList();
+        final LeakChecker checker = LeakChecker.create(sealingBrushes);
+        if (checker == null) {
+            leak = null;
+            issue(IssueLevel.WARN, "leak_check_too_large");
+            return;
+        }
+        leak = checker.findLeak(origins);
+        if (leak != null) {
+            issue(
+                IssueLevel.ERROR, "leak",
+                leak.stream().map(pos -> BlockPos.containing(SourceUtil.untransform(aabb, pos))).distinct().toList()
+            );
+        }
+    }
+
+    private void reportBrushCounts() {
+        for (final var entry : brushCounts.reference2IntEntrySet()) {
+            issueConsumer.issue(
+                IssueLevel.INFO,
+                Component.translatable(
+                    entry.getKey() == options.decomposer()
+                        ? "mc2p2.issue.message.brush_count.selected"
+                        : "mc2p2.issue.message.brush_count",
+                    entry.getIntValue(), entry.getKey().getSerializedName()
+                ),
+                List.of()
+            );
+        }
+    }
+
+    private BlockState getBlockState(BlockPos pos) {
+        return world.get(pos);
     }
 
     private void issue(IssueLevel level, @Translatable(prefix = "mc2p2.issue.message.") String message, BlockPos... blocks) {
@@ -471,37 +924,107 @@ public class MapGenerator {
         final int xSize64 = area.getXSpan() * 64;
         final int ySize64 = area.getYSpan() * 64;
         final int zSize64 = area.getZSpan() * 64;
-        return SourceMap.builder()
-            .brush(new SimpleBrush(
+        final SimpleBrush sky = new SimpleBrush(
+            new AABB(0, ySize64, 0, xSize64, ySize64 + 16, zSize64),
+            Map.of(Direction.DOWN, skyboxMaterial)
+        );
+        otherBrushes.addAll(List.of(
+            new SimpleBrush(
                 new AABB(0, -16, 0, xSize64, 0, zSize64),
                 Map.of(Direction.UP, skyboxMaterial)
-            ))
-            .brush(new SimpleBrush(
+            ),
+            new SimpleBrush(
                 new AABB(-16, 0, 0, 0, ySize64, zSize64),
                 Map.of(Direction.EAST, skyboxMaterial)
-            ))
-            .brush(new SimpleBrush(
+            ),
+            new SimpleBrush(
                 new AABB(xSize64, 0, 0, xSize64 + 16, ySize64, zSize64),
                 Map.of(Direction.WEST, skyboxMaterial)
-            ))
-            .brush(new SimpleBrush(
+            ),
+            new SimpleBrush(
                 new AABB(0, 0, -16, xSize64, ySize64, 0),
                 Map.of(Direction.SOUTH, skyboxMaterial)
-            ))
-            .brush(new SimpleBrush(
+            ),
+            new SimpleBrush(
                 new AABB(0, 0, zSize64, xSize64, ySize64, zSize64 + 16),
                 Map.of(Direction.NORTH, skyboxMaterial)
-            ))
-            .brush(new SimpleBrush(
-                new AABB(0, ySize64, 0, xSize64, ySize64 + 16, zSize64),
-                Map.of(Direction.DOWN, skyboxMaterial)
-            ));
+            ),
+            sky
+        ));
+        sealingBrushes.add(sky.bounds());
+        final SourceMap.Builder result = SourceMap.builder();
+        otherBrushes.forEach(result::brush);
+        return result;
     }
 
     private static int z2i(boolean z) {
         return z ? 1 : 0;
     }
 
+    /**
+     * @param cells The door's blocks
+     */
+    private record DoorOpening(String name, BoundingBox cells, Direction facing, boolean open) {
+    }
+
+    /**
+     * @param detail Whether the brush goes in {@code func_detail} instead of the world, since it doesn't seal anything
+     */
+    private record GeneratedBrush(SimpleBrush brush, boolean detail) {
+    }
+
+    /**
+     * Positions of one material that may be merged into the same brushes.
+     * @param thinDirection The direction thin brushes are thin in, or {@code null} for full blocks.
+     */
+    private record BrushGroup(
+        BitSet positions, List<Direction> directions, @Nullable Direction thinDirection, Map<Direction, MaterialInfo> materials
+    ) {
+    }
+
+    private SimpleBrush toBrush(BrushGroup group, BoundingBox bounds) {
+        return new SimpleBrush(
+            group.thinDirection != null ? thinBrushBounds(bounds, group.thinDirection) : fullBrushBounds(bounds),
+            group.materials
+        );
+    }
+
+    /**
+     * Increasingly coarse ways of turning the brush groups into brushes.
+     */
+    private enum Coarsening implements StringRepresentable {
+        /**
+         * Uses the selected {@link BrushDecomposer}.
+         */
+        NONE("none", false),
+        /**
+         * Uses {@link BrushDecomposer#BEST}.
+         */
+        BEST_DECOMPOSITION("best_decomposition", false),
+        /**
+         * Merges the hidden interior of every material into {@link MaterialInfo#NODRAW} brushes.
+         */
+        NODRAW_CORE("nodraw_core", true),
+        /**
+         * Leaves out the hidden interior entirely.
+         */
+        HOLLOW("hollow", true);
+
+        private final String name;
+        final boolean hidesInterior;
+
+        Coarsening(String name, boolean hidesInterior) {
+            this.name = name;
+            this.hidesInterior = hidesInterior;
+        }
+
+        @NotNull
+        @Override
+        public String getSerializedName() {
+            return name;
+        }
+    }
+
     private record MaterialSet(String wall, String floor, String ceiling, Map<Direction, MaterialInfo> map) {
         public MaterialSet(String wall, String floor, String ceiling) {
             this(wall, floor, ceiling, toMap(wall, floor, ceiling));
@@ -0,0 +1,81 @@
+package io.github.gaming32.mc2p2.generator;
+
+import io.github.gaming32.mc2p2.util.AreaLayout;
+import io.github.gaming32.mc2p2.util.MC2P2Util;
+import it.unimi.dsi.fastutil.ints.IntArrayFIFOQueue;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.Direction;
+
+import java.util.BitSet;
+import java.util.Collection;
+
+/**
+ * The positions a player can reach from the spawn points without passing through a brush.
+ */
+public final class PlayableSpace {
+    private final AreaLayout layout;
+    private final BitSet reachable;
+
+    private PlayableSpace(AreaLayout layout, BitSet reachable) {
+        this.layout = layout;
+        this.reachable = reachable;
+    }
+
+    /**
+     * Flood fills from {@code starts} through every position that isn't in {@code blocked}. Starts that are blocked or
+     * outside the area are ignored.
+     */
+    public static PlayableSpace flood(AreaLayout layout, BitSet blocked, Collection<BlockPos> starts) {
+        final BitSet reachable = new BitSet(layout.volume());
+        final IntArrayFIFOQueue queue = new IntArrayFIFOQueue();
+        for (final BlockPos start : starts) {
+            if (!layout.contains(start)) continue;
+            final int index = layout.index(start);
+            if (blocked.get(index) || reachable.get(index)) continue;
+            reachable.set(index);
+            queue.enqueue(index);
+        }
+        final BlockPos.MutableBlockPos pos = new BlockPos.MutableBlockPos();
+        final BlockPos.MutableBlockPos neighbor = new BlockPos.MutableBlockPos();
+        while (!queue.isEmpty()) {
+            layout.setPos(pos, queue.dequeueInt());
+            for (final Direction dir : MC2P2Util.DIRECTIONS) {
+                neighbor.setWithOffset(pos, dir);
+                if (!layout.contains(neighbor)) continue;
+                final int index = layout.index(neighbor);
+                if (blocked.get(index) || reachable.get(index)) continue;
+                reachable.set(index);
+                queue.enqueue(index);
+            }
+        }
+        return new PlayableSpace(layout, reachable);
+    }
+
+    public boolean isEmpty() {
+        return reachable.isEmpty();
+    }
+
+    public boolean isReachable(int index) {
+        return reachable.get(index);
+    }
+
+    /**
+     * @return The positions of {@code solid} that share a face with a reachable position
+     */
+    public BitSet bounding(BitSet solid) {
+        final BitSet result = new BitSet();
+        final BlockPos.MutableBlockPos pos = new BlockPos.MutableBlockPos();
+        final BlockPos.MutableBlockPos neighbor = new BlockPos.MutableBlockPos();
+        for (int i = solid.nextSetBit(0); i >= 0; i = solid.nextSetBit(i + 1)) {
+            layout.setPos(pos, i);
+            for (final Direction dir : MC2P2Util.DIRECTIONS) {
+                neighbor.setWithOffset(pos, dir);
+                if (layout.contains(neighbor) && reachable.get(layout.index(neighbor))) {
+                    result.set(i);
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,85 @@
+package io.github.gaming32.mc2p2.generator;
+
+import io.github.gaming32.mc2p2.util.TickTask;
+import net.minecraft.world.level.Level;
+import net.minecraft.world.level.levelgen.structure.BoundingBox;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.IntConsumer;
+
+/**
+ * Copies an area into a {@link WorldSnapshot} a few chunk sections at a time. The number of sections copied per tick
+ * is picked from the measured cost of previous sections and the time left in the tick.
+ */
+public final class SnapshotCapture implements TickTask {
+    private static final long INITIAL_NANOS_PER_SECTION = 100_000;
+    private static final int PROGRESS_STEP = 10;
+
+    private final Level level;
+    private final WorldSnapshot.Builder builder;
+    @Nullable
+    private final IntConsumer progressListener;
+    private final CompletableFuture<WorldSnapshot> future = new CompletableFuture<>();
+
+    private final int totalSections;
+    private int nextSection;
+
+    private double nanosPerSection = INITIAL_NANOS_PER_SECTION;
+    private int lastReportedProgress;
+
+    /**
+     * @param progressListener Called with the completion percentage every {@value #PROGRESS_STEP}%.
+     */
+    public SnapshotCapture(Level level, BoundingBox area, @Nullable IntConsumer progressListener) {
+        this.level = level;
+        this.builder = new WorldSnapshot.Builder(area);
+        this.progressListener = progressListener;
+        this.totalSections = builder.sectionCount();
+    }
+
+    public CompletableFuture<WorldSnapshot> future() {
+        return future;
+    }
+
+    @Override
+    public boolean tick(long deadline) {
+        if (future.isDone()) {
+            return true;
+        }
+        try {
+            final long start = System.nanoTime();
+            final int batch = (int)Math.max(1, Math.min(
+                totalSections - nextSection, (deadline - start) / nanosPerSection
+            ));
+            for (int i = 0; i < batch; i++) {
+                builder.captureSection(level, nextSection++);
+            }
+            // Weigh the latest measurement heavily, since the cost per section depends on what's in the area
+            final double measured = (double)(System.nanoTime() - start) / batch;
+            nanosPerSection = nanosPerSection * 0.5 + measured * 0.5;
+            reportProgress();
+            if (nextSection < totalSections) {
+                return false;
+            }
+            future.complete(builder.build(WorldSnapshot.captureEntities(level, builder.area())));
+        } catch (Throwable t) {
+            future.completeExceptionally(t);
+        }
+        return true;
+    }
+
+    private void reportProgress() {
+        if (progressListener == null) return;
+        final int progress = (int)((long)nextSection * 100 / totalSections);
+        if (progress >= lastReportedProgress + PROGRESS_STEP && progress < 100) {
+            lastReportedProgress = progress - progress % PROGRESS_STEP;
+            progressListener.accept(lastReportedProgress);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SnapshotCapture[" + builder.area() + ", " + nextSection + "/" + totalSections + "]";
+    }
+}
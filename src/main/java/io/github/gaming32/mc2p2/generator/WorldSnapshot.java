@@ -0,0 +1,247 @@
+package io.github.gaming32.mc2p2.generator;
+
+import io.github.gaming32.mc2p2.util.AreaLayout;
+import it.unimi.dsi.fastutil.ints.IntArraySet;
+import it.unimi.dsi.fastutil.ints.IntSet;
+import it.unimi.dsi.fastutil.objects.Reference2IntMap;
+import it.unimi.dsi.fastutil.objects.Reference2IntOpenHashMap;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.SectionPos;
+import net.minecraft.world.entity.Entity;
+import net.minecraft.world.entity.EntityType;
+import net.minecraft.world.level.Level;
+import net.minecraft.world.level.block.Blocks;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.chunk.LevelChunkSection;
+import net.minecraft.world.level.levelgen.structure.BoundingBox;
+import net.minecraft.world.phys.AABB;
+import net.minecraft.world.phys.Vec3;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An immutable copy of the blocks and entities in an area. Blocks are stored as palette indices in a flat array laid
+ * out by {@link AreaLayout}, so lookups never hash or allocate.
+ */
+public final class WorldSnapshot {
+    private static final BlockState AIR = Blocks.AIR.defaultBlockState();
+    private static final BlockState VOID_AIR = Blocks.VOID_AIR.defaultBlockState();
+    private static final int AIR_ID = 0;
+    private static final int VOID_AIR_ID = 1;
+
+    private final BoundingBox area;
+    private final AreaLayout layout;
+    private final BlockState[] palette;
+    private final char[] smallData;
+    private final int[] largeData;
+    private final List<Section> sections;
+    private final List<EntitySnapshot> entities;
+
+    private WorldSnapshot(
+        BoundingBox area, AreaLayout layout, BlockState[] palette, char[] smallData, int[] largeData,
+        List<Section> sections, List<EntitySnapshot> entities
+    ) {
+        this.area = area;
+        this.layout = layout;
+        this.palette = palette;
+        this.smallData = smallData;
+        this.largeData = largeData;
+        this.sections = sections;
+        this.entities = entities;
+    }
+
+    public static List<EntitySnapshot> captureEntities(Level level, BoundingBox area) {
+        final List<EntitySnapshot> result = new ArrayList<>();
+        for (final Entity entity : level.getEntities(null, AABB.of(area))) {
+            result.add(new EntitySnapshot(entity.getType(), entity.position(), entity.getYRot()));
+        }
+        return List.copyOf(result);
+    }
+
+    public BoundingBox area() {
+        return area;
+    }
+
+    public AreaLayout layout() {
+        return layout;
+    }
+
+    public List<Section> sections() {
+        return sections;
+    }
+
+    public List<EntitySnapshot> entities() {
+        return entities;
+    }
+
+    public int paletteSize() {
+        return palette.length;
+    }
+
+    public BlockState getPaletteState(int id) {
+        return palette[id];
+    }
+
+    public BlockState get(int x, int y, int z) {
+        if (!layout.contains(x, y, z)) {
+            return VOID_AIR;
+        }
+        return palette[getId(layout.index(x, y, z))];
+    }
+
+    public BlockState get(BlockPos pos) {
+        return get(pos.getX(), pos.getY(), pos.getZ());
+    }
+
+    public BlockState get(int index) {
+        return palette[getId(index)];
+    }
+
+    public int getId(int index) {
+        return smallData != null ? smallData[index] : largeData[index];
+    }
+
+    /**
+     * The part of a chunk section that lies inside the area.
+     * @param paletteIds The palette IDs of every state that occurs in this part of the section.
+     */
+    public record Section(BoundingBox bounds, int[] paletteIds) {
+    }
+
+    public record EntitySnapshot(EntityType<?> type, Vec3 position, float yRot) {
+    }
+
+    public static final class Builder {
+        private final BoundingBox area;
+        private final AreaLayout layout;
+        private final Reference2IntMap<BlockState> paletteIds = new Reference2IntOpenHashMap<>();
+        private final List<BlockState> palette = new ArrayList<>();
+        private char[] smallData;
+        private int[] largeData;
+
+        private final int minSectionX, minSectionY, minSectionZ;
+        private final int xSections, ySections;
+        private final Section[] sections;
+
+        public Builder(BoundingBox area) {
+            this.area = area;
+            this.layout = AreaLayout.of(area);
+            paletteIds.defaultReturnValue(-1);
+            getPaletteId(AIR);
+            getPaletteId(VOID_AIR);
+            smallData = new char[layout.volume()];
+
+            minSectionX = SectionPos.blockToSectionCoord(area.minX());
+            minSectionY = SectionPos.blockToSectionCoord(area.minY());
+            minSectionZ = SectionPos.blockToSectionCoord(area.minZ());
+            xSections = SectionPos.blockToSectionCoord(area.maxX()) - minSectionX + 1;
+            ySections = SectionPos.blockToSectionCoord(area.maxY()) - minSectionY + 1;
+            sections = new Section[xSections * ySections * (SectionPos.blockToSectionCoord(area.maxZ()) - minSectionZ + 1)];
+        }
+
+        public BoundingBox area() {
+            return area;
+        }
+
+        public int sectionCount() {
+            return sections.length;
+        }
+
+        public void captureSection(Level level, int section) {
+            // Sections are ordered Y first so that each chunk is looked up while it's hot
+            final int sectionY = minSectionY + section % ySections;
+            final int sectionX = minSectionX + section / ySections % xSections;
+            final int sectionZ = minSectionZ + section / ySections / xSections;
+            final BoundingBox bounds = new BoundingBox(
+                Math.max(area.minX(), SectionPos.sectionToBlockCoord(sectionX)),
+                Math.max(area.minY(), SectionPos.sectionToBlockCoord(sectionY)),
+                Math.max(area.minZ(), SectionPos.sectionToBlockCoord(sectionZ)),
+                Math.min(area.maxX(), SectionPos.sectionToBlockCoord(sectionX, 15)),
+                Math.min(area.maxY(), SectionPos.sectionToBlockCoord(sectionY, 15)),
+                Math.min(area.maxZ(), SectionPos.sectionToBlockCoord(sectionZ, 15))
+            );
+            sections[section] = new Section(bounds, captureSection(level, sectionX, sectionY, sectionZ, bounds));
+        }
+
+        private int[] captureSection(Level level, int sectionX, int sectionY, int sectionZ, BoundingBox bounds) {
+            final int minX = bounds.minX(), minY = bounds.minY(), minZ = bounds.minZ();
+            final int maxX = bounds.maxX(), maxY = bounds.maxY(), maxZ = bounds.maxZ();
+            if (sectionY < level.getMinSection() || sectionY >= level.getMaxSection()) {
+                for (int z = minZ; z <= maxZ; z++) {
+                    for (int y = minY; y <= maxY; y++) {
+                        final int start = layout.index(minX, y, z);
+                        fill(start, start + maxX - minX + 1, VOID_AIR_ID);
+                    }
+                }
+                return new int[] {VOID_AIR_ID};
+            }
+            final LevelChunkSection section = level.getChunk(sectionX, sectionZ)
+                .getSection(level.getSectionIndexFromSectionY(sectionY));
+            if (section.hasOnlyAir()) {
+                return new int[] {AIR_ID};
+            }
+            final IntSet presentIds = new IntArraySet();
+            BlockState lastState = null;
+            int lastId = AIR_ID;
+            for (int z = minZ; z <= maxZ; z++) {
+                for (int y = minY; y <= maxY; y++) {
+                    int index = layout.index(minX, y, z);
+                    for (int x = minX; x <= maxX; x++, index++) {
+                        final BlockState state = section.getBlockState(x & 15, y & 15, z & 15);
+                        if (state != lastState) {
+                            lastState = state;
+                            lastId = getPaletteId(state);
+                            presentIds.add(lastId);
+                        }
+                        set(index, lastId);
+                    }
+                }
+            }
+            return presentIds.toIntArray();
+        }
+
+        private int getPaletteId(BlockState state) {
+            int id = paletteIds.getInt(state);
+            if (id == -1) {
+                id = palette.size();
+                palette.add(state);
+                paletteIds.put(state, id);
+                if (id > Character.MAX_VALUE && smallData != null) {
+                    largeData = new int[smallData.length];
+                    for (int i = 0; i < smallData.length; i++) {
+                        largeData[i] = smallData[i];
+                    }
+                    smallData = null;
+                }
+            }
+            return id;
+        }
+
+        private void set(int index, int id) {
+            if (smallData != null) {
+                smallData[index] = (char)id;
+            } else {
+                largeData[index] = id;
+            }
+        }
+
+        private void fill(int from, int to, int id) {
+            if (smallData != null) {
+                Arrays.fill(smallData, from, to, (char)id);
+            } else {
+                Arrays.fill(largeData, from, to, id);
+            }
+        }
+
+        public WorldSnapshot build(List<EntitySnapshot> entities) {
+            final WorldSnapshot result = new WorldSnapshot(
+                area, layout, palette.toArray(BlockState[]::new), smallData, largeData, List.of(sections), entities
+            );
+            smallData = null;
+            largeData = null;
+            return result;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package io.github.gaming32.mc2p2.util;
+
+import net.minecraft.core.BlockPos;
+import net.minecraft.world.level.levelgen.structure.BoundingBox;
+
+import java.util.BitSet;
+
+/**
+ * A fixed-size bitset over the positions of an {@link AreaLayout}. Positions outside the area are never contained,
+ * and are ignored when added.
+ */
+public final class AreaBitSet {
+    private final AreaLayout layout;
+    private final long[] words;
+
+    public AreaBitSet(AreaLayout layout) {
+        this.layout = layout;
+        this.words = new long[(layout.volume() + 63) >>> 6];
+    }
+
+    public AreaLayout layout() {
+        return layout;
+    }
+
+    public boolean get(int index) {
+        return (words[index >>> 6] & (1L << index)) != 0;
+    }
+
+    public boolean get(BlockPos pos) {
+        return layout.contains(pos) && get(layout.index(pos));
+    }
+
+    /**
+     * @return {@code true} if the position wasn't already set
+     */
+    public boolean add(int index) {
+        final long word = words[index >>> 6];
+        final long bit = 1L << index;
+        words[index >>> 6] = word | bit;
+        return (word & bit) == 0;
+    }
+
+    public boolean add(BlockPos pos) {
+        return layout.contains(pos) && add(layout.index(pos));
+    }
+
+    public int nextSetBit(int from) {
+        int wordIndex = from >>> 6;
+        if (wordIndex >= words.length) {
+            return -1;
+        }
+        long word = words[wordIndex] & (-1L << from);
+        while (word == 0) {
+            if (++wordIndex == words.length) {
+                return -1;
+            }
+            word = words[wordIndex];
+        }
+        return (wordIndex << 6) + Long.numberOfTrailingZeros(word);
+    }
+
+    public BitSet toBitSet() {
+        return BitSet.valueOf(words);
+    }
+
+    /**
+     * Sets every position in {@code box} that's inside the area.
+     */
+    public void fill(BoundingBox box) {
+        final BoundingBox clipped = layout.clip(box);
+        if (clipped == null) return;
+        for (int z = clipped.minZ(); z <= clipped.maxZ(); z++) {
+            for (int y = clipped.minY(); y <= clipped.maxY(); y++) {
+                final int from = layout.index(clipped.minX(), y, z);
+                setRange(from, from + clipped.getXSpan());
+            }
+        }
+    }
+
+    /**
+     * @return Whether any position in {@code box} is set
+     */
+    public boolean any(BoundingBox box) {
+        final BoundingBox clipped = layout.clip(box);
+        if (clipped == null) {
+            return false;
+        }
+        for (int z = clipped.minZ(); z <= clipped.maxZ(); z++) {
+            for (int y = clipped.minY(); y <= clipped.maxY(); y++) {
+                final int from = layout.index(clipped.minX(), y, z);
+                if (anyInRange(from, from + clipped.getXSpan())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void setRange(int from, int to) {
+        final int startWord = from >>> 6;
+        final int endWord = (to - 1) >>> 6;
+        final long startMask = -1L << from;
+        final long endMask = -1L >>> -to;
+        if (startWord == endWord) {
+            words[startWord] |= startMask & endMask;
+            return;
+        }
+        words[startWord] |= startMask;
+        for (int i = startWord + 1; i < endWord; i++) {
+            words[i] = -1L;
+        }
+        words[endWord] |= endMask;
+    }
+
+    private boolean anyInRange(int from, int to) {
+        final int startWord = from >>> 6;
+        final int endWord = (to - 1) >>> 6;
+        final long startMask = -1L << from;
+        final long endMask = -1L >>> -to;
+        if (startWord == endWord) {
+            return (words[startWord] & startMask & endMask) != 0;
+        }
+        if ((words[startWord] & startMask) != 0) {
+            return true;
+        }
+        for (int i = startWord + 1; i < endWord; i++) {
+            if (words[i] != 0) {
+                return true;
+            }
+        }
+        return (words[endWord] & endMask) != 0;
+    }
+}
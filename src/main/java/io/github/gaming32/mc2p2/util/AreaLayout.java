@@ -0,0 +1,105 @@
+package io.github.gaming32.mc2p2.util;
+
+import net.minecraft.core.BlockPos;
+import net.minecraft.world.level.levelgen.structure.BoundingBox;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Maps positions inside a {@link BoundingBox} to a flat index. The index order matches
+ * {@link BlockPos#betweenClosed(BlockPos, BlockPos)}, so X varies fastest, then Y, then Z.
+ */
+public record AreaLayout(int minX, int minY, int minZ, int xSpan, int ySpan, int zSpan) {
+    public static AreaLayout of(BoundingBox box) {
+        final AreaLayout result = new AreaLayout(
+            box.minX(), box.minY(), box.minZ(),
+            box.getXSpan(), box.getYSpan(), box.getZSpan()
+        );
+        Math.multiplyExact(Math.multiplyExact(result.xSpan, result.ySpan), result.zSpan);
+        return result;
+    }
+
+    public BoundingBox toBoundingBox() {
+        return new BoundingBox(minX, minY, minZ, maxX(), maxY(), maxZ());
+    }
+
+    public int volume() {
+        return xSpan * ySpan * zSpan;
+    }
+
+    public int maxX() {
+        return minX + xSpan - 1;
+    }
+
+    public int maxY() {
+        return minY + ySpan - 1;
+    }
+
+    public int maxZ() {
+        return minZ + zSpan - 1;
+    }
+
+    public boolean contains(int x, int y, int z) {
+        return x >= minX && x < minX + xSpan && y >= minY && y < minY + ySpan && z >= minZ && z < minZ + zSpan;
+    }
+
+    public boolean contains(BlockPos pos) {
+        return contains(pos.getX(), pos.getY(), pos.getZ());
+    }
+
+    /**
+     * @return The part of {@code box} that's inside the area, or {@code null} if there is none
+     */
+    @Nullable
+    public BoundingBox clip(BoundingBox box) {
+        final int minX = Math.max(box.minX(), this.minX);
+        final int minY = Math.max(box.minY(), this.minY);
+        final int minZ = Math.max(box.minZ(), this.minZ);
+        final int maxX = Math.min(box.maxX(), maxX());
+        final int maxY = Math.min(box.maxY(), maxY());
+        final int maxZ = Math.min(box.maxZ(), maxZ());
+        if (minX > maxX || minY > maxY || minZ > maxZ) {
+            return null;
+        }
+        return new BoundingBox(minX, minY, minZ, maxX, maxY, maxZ);
+    }
+
+    public int index(int x, int y, int z) {
+        return ((z - minZ) * ySpan + (y - minY)) * xSpan + (x - minX);
+    }
+
+    public int index(BlockPos pos) {
+        return index(pos.getX(), pos.getY(), pos.getZ());
+    }
+
+    public int x(int index) {
+        return minX + index % xSpan;
+    }
+
+    public int y(int index) {
+        return minY + index / xSpan % ySpan;
+    }
+
+    public int z(int index) {
+        return minZ + index / xSpan / ySpan;
+    }
+
+    public BlockPos.MutableBlockPos setPos(BlockPos.MutableBlockPos pos, int index) {
+        return pos.set(x(index), y(index), z(index));
+    }
+
+    public BlockPos toPos(int index) {
+        return new BlockPos(x(index), y(index), z(index));
+    }
+
+    public List<BlockPos> toPositions(BitSet indices) {
+        final List<BlockPos> result = new ArrayList<>(indices.cardinality());
+        for (int i = indices.nextSetBit(0); i >= 0; i = indices.nextSetBit(i + 1)) {
+            result.add(toPos(i));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,116 @@
+package io.github.gaming32.mc2p2.util;
+
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.Direction;
+import net.minecraft.world.level.levelgen.structure.BoundingBox;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Stores an optional {@link Direction} for every position of an {@link AreaLayout}, packed into 3 bits per position.
+ * Positions outside the area never have a direction.
+ */
+public final class DirectionGrid {
+    private static final int BITS = 3;
+    private static final int PER_WORD = Long.SIZE / BITS;
+    private static final long MASK = (1L << BITS) - 1;
+
+    private final AreaLayout layout;
+    private final long[] words;
+
+    public DirectionGrid(AreaLayout layout) {
+        this.layout = layout;
+        this.words = new long[(layout.volume() + PER_WORD - 1) / PER_WORD];
+    }
+
+    public AreaLayout layout() {
+        return layout;
+    }
+
+    @Nullable
+    public Direction get(int index) {
+        final int value = getRaw(index);
+        return value != 0 ? MC2P2Util.DIRECTIONS[value - 1] : null;
+    }
+
+    @Nullable
+    public Direction get(BlockPos pos) {
+        return layout.contains(pos) ? get(layout.index(pos)) : null;
+    }
+
+    public void set(int index, @Nullable Direction direction) {
+        final int shift = index % PER_WORD * BITS;
+        final long value = direction != null ? direction.ordinal() + 1 : 0;
+        final int word = index / PER_WORD;
+        words[word] = (words[word] & ~(MASK << shift)) | (value << shift);
+    }
+
+    public void set(BlockPos pos, @Nullable Direction direction) {
+        if (layout.contains(pos)) {
+            set(layout.index(pos), direction);
+        }
+    }
+
+    /**
+     * Sets the direction of every position in {@code box} that's inside the area.
+     */
+    public void fill(BoundingBox box, @Nullable Direction direction) {
+        final BoundingBox clipped = layout.clip(box);
+        if (clipped == null) return;
+        for (int z = clipped.minZ(); z <= clipped.maxZ(); z++) {
+            for (int y = clipped.minY(); y <= clipped.maxY(); y++) {
+                int index = layout.index(clipped.minX(), y, z);
+                for (int x = clipped.minX(); x <= clipped.maxX(); x++) {
+                    set(index++, direction);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return Whether every position in {@code box} is inside the area and has the direction {@code direction}
+     */
+    public boolean all(BoundingBox box, Direction direction) {
+        if (!layout.contains(box.minX(), box.minY(), box.minZ()) || !layout.contains(box.maxX(), box.maxY(), box.maxZ())) {
+            return false;
+        }
+        final int value = direction.ordinal() + 1;
+        for (int z = box.minZ(); z <= box.maxZ(); z++) {
+            for (int y = box.minY(); y <= box.maxY(); y++) {
+                int index = layout.index(box.minX(), y, z);
+                for (int x = box.minX(); x <= box.maxX(); x++) {
+                    if (getRaw(index++) != value) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The first index at or after {@code from} that has a direction, or {@code -1} if there is none
+     */
+    public int next(int from) {
+        final int volume = layout.volume();
+        int word = from / PER_WORD;
+        int index = from;
+        while (index < volume) {
+            if (words[word] >>> (index % PER_WORD * BITS) == 0) {
+                // Nothing else in this word
+                index = ++word * PER_WORD;
+                continue;
+            }
+            if (getRaw(index) != 0) {
+                return index;
+            }
+            if (++index % PER_WORD == 0) {
+                word++;
+            }
+        }
+        return -1;
+    }
+
+    private int getRaw(int index) {
+        return (int)(words[index / PER_WORD] >>> (index % PER_WORD * BITS) & MASK);
+    }
+}
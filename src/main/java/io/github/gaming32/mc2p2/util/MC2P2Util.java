@@ -12,6 +12,8 @@ import net.minecraft.world.phys.AABB;
 import net.minecraft.world.phys.Vec3;
 import org.jetbrains.annotations.Nullable;
 
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.List;
 import java.util.Map;
 import java.util.function.Predicate;
@@ -69,6 +71,20 @@ public class MC2P2Util {
         };
     }
 
+    /**
+     * @return The {@code thickness} layers of positions just outside {@code box} in {@code direction}
+     */
+    public static BoundingBox slab(BoundingBox box, Direction direction, int thickness) {
+        return switch (direction) {
+            case DOWN -> new BoundingBox(box.minX(), box.minY() - thickness, box.minZ(), box.maxX(), box.minY() - 1, box.maxZ());
+            case UP -> new BoundingBox(box.minX(), box.maxY() + 1, box.minZ(), box.maxX(), box.maxY() + thickness, box.maxZ());
+            case NORTH -> new BoundingBox(box.minX(), box.minY(), box.minZ() - thickness, box.maxX(), box.maxY(), box.minZ() - 1);
+            case SOUTH -> new BoundingBox(box.minX(), box.minY(), box.maxZ() + 1, box.maxX(), box.maxY(), box.maxZ() + thickness);
+            case WEST -> new BoundingBox(box.minX() - thickness, box.minY(), box.minZ(), box.minX() - 1, box.maxY(), box.maxZ());
+            case EAST -> new BoundingBox(box.maxX() + 1, box.minY(), box.minZ(), box.maxX() + thickness, box.maxY(), box.maxZ());
+        };
+    }
+
     @Nullable
     public static BoundingBox matchBlocks(
         BlockPos origin, IntIntPair maxSearch, Direction axis1, Direction axis2, Predicate<BlockPos> predicate
@@ -131,4 +147,12 @@ public class MC2P2Util {
     public static BoundingBox moved(BoundingBox box, Direction direction, int amount) {
         return copy(box).move(direction.getNormal().multiply(amount));
     }
+
+    public static MessageDigest createSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is required to be supported", e);
+        }
+    }
 }
@@ -0,0 +1,47 @@
+package io.github.gaming32.mc2p2.util;
+
+import io.github.gaming32.mc2p2.MC2P2;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerLifecycleEvents;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerTickEvents;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class TickScheduler {
+    /**
+     * The part of a 50 ms tick that may be used before scheduled tasks stop for the tick.
+     */
+    public static final long TICK_BUDGET_NANOS = TimeUnit.MILLISECONDS.toNanos(45);
+
+    private static final List<TickTask> TASKS = new ArrayList<>();
+    private static long tickStart;
+
+    public static void init() {
+        ServerTickEvents.START_SERVER_TICK.register(server -> tickStart = System.nanoTime());
+        ServerTickEvents.END_SERVER_TICK.register(server -> runTasks());
+        ServerLifecycleEvents.SERVER_STOPPED.register(server -> TASKS.clear());
+    }
+
+    public static void schedule(TickTask task) {
+        TASKS.add(task);
+    }
+
+    private static void runTasks() {
+        if (TASKS.isEmpty()) return;
+        final long deadline = tickStart + TICK_BUDGET_NANOS;
+        // Tasks may schedule other tasks when they finish, so iterate over a copy
+        for (final TickTask task : List.copyOf(TASKS)) {
+            boolean finished;
+            try {
+                finished = task.tick(deadline);
+            } catch (Throwable t) {
+                MC2P2.LOGGER.error("Scheduled task {} failed", task, t);
+                finished = true;
+            }
+            if (finished) {
+                TASKS.remove(task);
+            }
+        }
+    }
+}
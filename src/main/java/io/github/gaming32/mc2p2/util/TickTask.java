@@ -0,0 +1,14 @@
+package io.github.gaming32.mc2p2.util;
+
+/**
+ * A piece of work that is spread over multiple server ticks by {@link TickScheduler}.
+ */
+@FunctionalInterface
+public interface TickTask {
+    /**
+     * Does as much work as fits before {@code deadline}, but always makes some progress.
+     * @param deadline The {@link System#nanoTime()} by which this tick's work should be done.
+     * @return Whether the task has finished and should be removed.
+     */
+    boolean tick(long deadline);
+}
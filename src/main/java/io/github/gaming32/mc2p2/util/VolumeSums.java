@@ -0,0 +1,92 @@
+package io.github.gaming32.mc2p2.util;
+
+import net.minecraft.world.level.levelgen.structure.BoundingBox;
+
+import java.util.BitSet;
+
+/**
+ * A summed volume table (3D prefix sum) over a set of {@link AreaLayout} positions, answering "how many positions in
+ * this box are set" in constant time. The table only covers the bounding box of the set positions.
+ */
+public final class VolumeSums {
+    private final int minX, minY, minZ;
+    private final int xSize, ySize, zSize;
+    private final int[] sums;
+
+    private VolumeSums(int minX, int minY, int minZ, int xSize, int ySize, int zSize) {
+        this.minX = minX;
+        this.minY = minY;
+        this.minZ = minZ;
+        this.xSize = xSize;
+        this.ySize = ySize;
+        this.zSize = zSize;
+        this.sums = new int[(xSize + 1) * (ySize + 1) * (zSize + 1)];
+    }
+
+    public static VolumeSums of(AreaLayout layout, BitSet set) {
+        if (set.isEmpty()) {
+            return new VolumeSums(0, 0, 0, 0, 0, 0);
+        }
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, minZ = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE, maxZ = Integer.MIN_VALUE;
+        for (int i = set.nextSetBit(0); i >= 0; i = set.nextSetBit(i + 1)) {
+            final int x = layout.x(i), y = layout.y(i), z = layout.z(i);
+            minX = Math.min(minX, x);
+            minY = Math.min(minY, y);
+            minZ = Math.min(minZ, z);
+            maxX = Math.max(maxX, x);
+            maxY = Math.max(maxY, y);
+            maxZ = Math.max(maxZ, z);
+        }
+        final VolumeSums result = new VolumeSums(minX, minY, minZ, maxX - minX + 1, maxY - minY + 1, maxZ - minZ + 1);
+        final int[] sums = result.sums;
+        for (int z = 1; z <= result.zSize; z++) {
+            for (int y = 1; y <= result.ySize; y++) {
+                int index = layout.index(minX, minY + y - 1, minZ + z - 1);
+                for (int x = 1; x <= result.xSize; x++, index++) {
+                    sums[result.index(x, y, z)] = (set.get(index) ? 1 : 0)
+                        + sums[result.index(x - 1, y, z)]
+                        + sums[result.index(x, y - 1, z)]
+                        + sums[result.index(x, y, z - 1)]
+                        - sums[result.index(x - 1, y - 1, z)]
+                        - sums[result.index(x - 1, y, z - 1)]
+                        - sums[result.index(x, y - 1, z - 1)]
+                        + sums[result.index(x - 1, y - 1, z - 1)];
+                }
+            }
+        }
+        return result;
+    }
+
+    public int count(BoundingBox box) {
+        final int x0 = clamp(box.minX() - minX, xSize), x1 = clamp(box.maxX() - minX + 1, xSize);
+        final int y0 = clamp(box.minY() - minY, ySize), y1 = clamp(box.maxY() - minY + 1, ySize);
+        final int z0 = clamp(box.minZ() - minZ, zSize), z1 = clamp(box.maxZ() - minZ + 1, zSize);
+        if (x0 >= x1 || y0 >= y1 || z0 >= z1) {
+            return 0;
+        }
+        return sums[index(x1, y1, z1)]
+            - sums[index(x0, y1, z1)]
+            - sums[index(x1, y0, z1)]
+            - sums[index(x1, y1, z0)]
+            + sums[index(x0, y0, z1)]
+            + sums[index(x0, y1, z0)]
+            + sums[index(x1, y0, z0)]
+            - sums[index(x0, y0, z0)];
+    }
+
+    /**
+     * @return Whether every position in {@code box} is set
+     */
+    public boolean isFull(BoundingBox box) {
+        return count(box) == box.getXSpan() * box.getYSpan() * box.getZSpan();
+    }
+
+    private int index(int x, int y, int z) {
+        return (z * (ySize + 1) + y) * (xSize + 1) + x;
+    }
+
+    private static int clamp(int value, int max) {
+        return Math.max(0, Math.min(value, max));
+    }
+}
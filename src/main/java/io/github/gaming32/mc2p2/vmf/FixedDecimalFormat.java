@@ -0,0 +1,83 @@
+package io.github.gaming32.mc2p2.vmf;
+
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
+
+/**
+ * Formats doubles the same way as {@code new DecimalFormat("#.###")} with {@link Locale#ROOT} symbols, without
+ * allocating. That means up to three decimals, trailing zeros trimmed, {@link java.math.RoundingMode#HALF_EVEN HALF_EVEN}
+ * rounding of the exact binary value, and a {@code -} sign on negative values that round to zero.
+ */
+public final class FixedDecimalFormat {
+    /**
+     * Every integer up to this is exact, and prints the same as DecimalFormat's shortest digits.
+     */
+    private static final double MAX_FAST_INTEGER = 0x1p52;
+    /**
+     * DecimalFormat rounds the shortest digits that identify a value rather than the exact value. Up to this, a double
+     * is precise enough that both round the same.
+     */
+    private static final double MAX_FAST_FRACTION = 0x1p32;
+    // Only used for values that can't come up in a map, and for the rare products that round to a tie
+    private static final ThreadLocal<DecimalFormat> FALLBACK = ThreadLocal.withInitial(
+        () -> new DecimalFormat("#.###", DecimalFormatSymbols.getInstance(Locale.ROOT))
+    );
+
+    private FixedDecimalFormat() {
+    }
+
+    public static String format(double value) {
+        return append(new StringBuilder(12), value).toString();
+    }
+
+    public static StringBuilder append(StringBuilder out, double value) {
+        final double abs = Math.abs(value);
+        if (!(abs < MAX_FAST_INTEGER)) {
+            return out.append(FALLBACK.get().format(value));
+        }
+        final long whole = (long)value;
+        if (whole == value) {
+            if (whole == 0 && Double.doubleToRawLongBits(value) != 0) {
+                out.append('-');
+            }
+            return out.append(whole);
+        }
+        if (abs >= MAX_FAST_FRACTION) {
+            return out.append(FALLBACK.get().format(value));
+        }
+        long intPart = (long)abs;
+        // Both subtractions are exact, so only the multiplication rounds
+        final double thousandths = (abs - intPart) * 1000;
+        int fraction = (int)thousandths;
+        final double remainder = thousandths - fraction;
+        if (remainder == 0.5) {
+            // A product that rounds to a tie is only an exact tie if the fraction is a multiple of 1/16
+            final double sixteenths = abs * 16;
+            if (sixteenths != Math.floor(sixteenths)) {
+                return out.append(FALLBACK.get().format(value));
+            }
+            fraction += fraction & 1;
+        } else if (remainder > 0.5) {
+            fraction++;
+        }
+        if (fraction == 1000) {
+            intPart++;
+            fraction = 0;
+        }
+        if (value < 0) {
+            out.append('-');
+        }
+        out.append(intPart);
+        if (fraction != 0) {
+            out.append('.').append((char)('0' + fraction / 100));
+            if (fraction % 100 != 0) {
+                out.append((char)('0' + fraction / 10 % 10));
+                if (fraction % 10 != 0) {
+                    out.append((char)('0' + fraction % 10));
+                }
+            }
+        }
+        return out;
+    }
+}
@@ -10,6 +10,9 @@ import java.util.Map;
 public record MaterialInfo(String material, UvAxis uAxis, UvAxis vAxis) {
     public static final MaterialInfo NODRAW = defaultFor("TOOLS/TOOLSNODRAW");
     public static final MaterialInfo SKYBOX = defaultFor("TOOLS/TOOLSSKYBOX");
+    public static final MaterialInfo HINT = defaultFor("TOOLS/TOOLSHINT");
+    public static final MaterialInfo SKIP = defaultFor("TOOLS/TOOLSSKIP");
+    public static final MaterialInfo AREAPORTAL = defaultFor("TOOLS/TOOLSAREAPORTAL");
 
     public MaterialInfo {
         material = material.toUpperCase(Locale.ROOT);
@@ -27,6 +30,14 @@ public record MaterialInfo(String material, UvAxis uAxis, UvAxis vAxis) {
         return result;
     }
 
+    public static Map<Direction, MaterialInfo> ofAllDirections(MaterialInfo material) {
+        final Map<Direction, MaterialInfo> result = new EnumMap<>(Direction.class);
+        for (final Direction dir : MC2P2Util.DIRECTIONS) {
+            result.put(dir, material);
+        }
+        return result;
+    }
+
     public record UvAxis(int shift, double scale) {
         public static final UvAxis DEFAULT = new UvAxis(0, 0.25);
 
@@ -4,17 +4,88 @@ import io.github.gaming32.mc2p2.util.MC2P2Util;
 import net.minecraft.core.Direction;
 import net.minecraft.core.Vec3i;
 import net.minecraft.world.phys.AABB;
-import net.minecraft.world.phys.Vec3;
-import net.platinumdigitalgroup.jvdf.VDFNode;
 
+import java.util.Arrays;
 import java.util.Map;
 
-public record SimpleBrush(AABB bounds, Map<Direction, MaterialInfo> materials) implements ToVmfWithId {
+/**
+ * @param lightmapScales The lightmap scale of each face. Faces that aren't in this map use
+ *                       {@value #DEFAULT_LIGHTMAP_SCALE}.
+ */
+public record SimpleBrush(
+    AABB bounds, Map<Direction, MaterialInfo> materials, Map<Direction, Integer> lightmapScales
+) implements ToVmfWithId {
+    public static final int DEFAULT_LIGHTMAP_SCALE = 16;
+    private static final long NEGATIVE_ZERO_BITS = Double.doubleToRawLongBits(-0.0);
+    private static final FaceTemplate[] FACE_TEMPLATES = Arrays.stream(MC2P2Util.DIRECTIONS)
+        .map(FaceTemplate::of)
+        .toArray(FaceTemplate[]::new);
+
+    public SimpleBrush(AABB bounds, Map<Direction, MaterialInfo> materials) {
+        this(bounds, materials, Map.of());
+    }
+
+    public int lightmapScale(Direction direction) {
+        return lightmapScales.getOrDefault(direction, DEFAULT_LIGHTMAP_SCALE);
+    }
+
+    @Override
+    public void writeVmf(VmfSink sink, int id) {
+        final double[] coords = {bounds.minX, bounds.minY, bounds.minZ, bounds.maxX, bounds.maxY, bounds.maxZ};
+        // Generated brushes are always on the grid, so their coordinates can be written as plain integers
+        boolean integral = true;
+        for (final double coord : coords) {
+            if (coord != (int)coord || Double.doubleToRawLongBits(coord) == NEGATIVE_ZERO_BITS) {
+                integral = false;
+                break;
+            }
+        }
+        final StringBuilder buffer = new StringBuilder(64);
+        sink.value("id", id++);
+        for (final FaceTemplate face : FACE_TEMPLATES) {
+            final Direction dir = face.direction;
+            sink.beginNode("side");
+            sink.value("id", id++);
+            buffer.setLength(0);
+            for (int i = 0; i < face.corners.length; i++) {
+                buffer.append(i == 0 ? "(" : i % 3 == 0 ? ") (" : " ");
+                final double coord = coords[face.corners[i]];
+                if (integral) {
+                    buffer.append((int)coord);
+                } else {
+                    FixedDecimalFormat.append(buffer, coord);
+                }
+            }
+            sink.value("plane", buffer.append(')').toString());
+            final MaterialInfo material = materials.getOrDefault(dir, MaterialInfo.NODRAW);
+            sink.value("material", material.material());
+            sink.value("uaxis", getUvString(buffer, face.uAxisPrefix, material.uAxis()));
+            sink.value("vaxis", getUvString(buffer, face.vAxisPrefix, material.vAxis()));
+            sink.value("rotation", "0");
+            sink.value("lightmapscale", lightmapScale(dir));
+            sink.value("smoothing_groups", "0");
+            sink.endNode();
+        }
+    }
+
     @Override
-    public VDFNode toVmf(int id) {
-        final VDFNode result = new VDFNode();
-        result.put("id", id++);
-        for (final Direction dir : MC2P2Util.DIRECTIONS) {
+    public int idsUsed() {
+        return 7;
+    }
+
+    private static String getUvString(StringBuilder buffer, String prefix, MaterialInfo.UvAxis axis) {
+        buffer.setLength(0);
+        return buffer.append(prefix).append(axis.shift()).append("] ").append(axis.scale()).toString();
+    }
+
+    /**
+     * The parts of a side that only depend on its direction.
+     * @param corners The three points of the side's plane, as indices into a brush's
+     *                {@code {minX, minY, minZ, maxX, maxY, maxZ}}. Each point is in X, Z, Y order, like Source vectors.
+     * @param uAxisPrefix The start of the side's {@code uaxis}, up to the shift.
+     */
+    private record FaceTemplate(Direction direction, int[] corners, String uAxisPrefix, String vAxisPrefix) {
+        static FaceTemplate of(Direction dir) {
             final Direction up = switch (dir.getAxis().getPlane()) {
                 case HORIZONTAL -> Direction.UP;
                 case VERTICAL -> Direction.NORTH;
@@ -26,38 +97,25 @@ public record SimpleBrush(AABB bounds, Map<Direction, MaterialInfo> materials) i
                     case NEGATIVE -> Direction.WEST;
                 };
             };
-            final VDFNode side = new VDFNode();
-            result.put("side", side);
-            side.put("id", id++);
-            side.put("plane", getPlaneString(
-                MC2P2Util.getCorner(bounds, up.getOpposite(), left, dir),
-                MC2P2Util.getCorner(bounds, up, left, dir),
-                MC2P2Util.getCorner(bounds, up, left.getOpposite(), dir)
-            ));
-            final MaterialInfo material = materials.getOrDefault(dir, MaterialInfo.NODRAW);
-            side.put("material", material.material());
-            side.put("uaxis", getUvString(material.uAxis(), left.getNormal()));
-            side.put("vaxis", getUvString(material.vAxis(), up.getNormal()));
-            side.put("rotation", "0");
-            side.put("lightmapscale", "16");
-            side.put("smoothing_groups", "0");
+            final Direction[][] points = {
+                {up.getOpposite(), left, dir},
+                {up, left, dir},
+                {up, left.getOpposite(), dir}
+            };
+            final Direction.Axis[] vectorOrder = {Direction.Axis.X, Direction.Axis.Z, Direction.Axis.Y};
+            final int[] corners = new int[points.length * vectorOrder.length];
+            int i = 0;
+            for (final Direction[] point : points) {
+                for (final Direction.Axis axis : vectorOrder) {
+                    final Direction side = MC2P2Util.choose(axis, point[0], point[1], point[2]);
+                    corners[i++] = axis.ordinal() + (side.getAxisDirection() == Direction.AxisDirection.POSITIVE ? 3 : 0);
+                }
+            }
+            return new FaceTemplate(dir, corners, getUvPrefix(left.getNormal()), getUvPrefix(up.getNormal()));
         }
-        return result;
-    }
-
-    @Override
-    public int idsUsed() {
-        return 7;
-    }
 
-    private static String getUvString(MaterialInfo.UvAxis axis, Vec3i dir) {
-        return "[" + dir.getX() + " " + dir.getZ() + " " + dir.getY() + " " + axis.shift() + "] " + axis.scale();
-    }
-
-    private static String getPlaneString(Vec3 bottomLeft, Vec3 upperLeft, Vec3 upperRight) {
-        return '(' + SourceUtil.getVectorString(bottomLeft)
-            + ") (" + SourceUtil.getVectorString(upperLeft)
-            + ") (" + SourceUtil.getVectorString(upperRight)
-            + ')';
+        private static String getUvPrefix(Vec3i dir) {
+            return "[" + dir.getX() + " " + dir.getZ() + " " + dir.getY() + " ";
+        }
     }
 }
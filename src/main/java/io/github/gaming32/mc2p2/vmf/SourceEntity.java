@@ -1,12 +1,13 @@
 package io.github.gaming32.mc2p2.vmf;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableMultimap;
 import com.google.common.collect.Multimap;
 import net.minecraft.world.phys.Vec3;
-import net.platinumdigitalgroup.jvdf.VDFNode;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.List;
 import java.util.Map;
 
 public record SourceEntity(
@@ -16,43 +17,50 @@ public record SourceEntity(
     @Nullable String name,
     Map<String, String> properties,
     Multimap<String, EntityConnection> connections,
-    @Nullable SimpleBrush brush
+    List<SimpleBrush> brushes
 ) implements ToVmfWithId {
     @Override
-    public VDFNode toVmf(int id) {
-        final VDFNode result = new VDFNode();
+    public void writeVmf(VmfSink sink, int id) {
         // This is a weird order, but it's the order Hammer uses
-        result.put("id", id++);
-        result.put("classname", clazz);
-        if (brush == null) {
-            result.put("angles", SourceUtil.getRotationString(angles));
+        sink.value("id", id++);
+        sink.value("classname", clazz);
+        if (brushes.isEmpty()) {
+            sink.value("angles", SourceUtil.getRotationString(angles));
         } else {
-            result.put("origin", SourceUtil.getVectorString(origin));
+            sink.value("origin", SourceUtil.getVectorString(origin));
         }
         for (final var entry : properties.entrySet()) {
-            result.put(entry.getKey(), entry.getValue());
+            sink.value(entry.getKey(), entry.getValue());
         }
         if (name != null) {
-            result.put("targetname", name);
+            sink.value("targetname", name);
         }
         if (!connections.isEmpty()) {
-            final VDFNode connectionsVmf = new VDFNode();
-            result.put("connections", connectionsVmf);
+            // Multimap entries are grouped by key, like VDFNode needs
+            sink.beginNode("connections");
             for (final var entry : connections.entries()) {
-                connectionsVmf.put(entry.getKey(), entry.getValue().toVmf());
+                sink.value(entry.getKey(), entry.getValue().toVmf());
             }
+            sink.endNode();
         }
-        if (brush == null) {
-            result.put("origin", SourceUtil.getVectorString(origin));
-        } else {
-            result.put("solid", brush.toVmf(id));
+        if (brushes.isEmpty()) {
+            sink.value("origin", SourceUtil.getVectorString(origin));
+        }
+        for (final SimpleBrush brush : brushes) {
+            sink.beginNode("solid");
+            brush.writeVmf(sink, id);
+            sink.endNode();
+            id += brush.idsUsed();
         }
-        return result;
     }
 
     @Override
     public int idsUsed() {
-        return 1 + (brush != null ? brush.idsUsed() : 0);
+        int result = 1;
+        for (final SimpleBrush brush : brushes) {
+            result += brush.idsUsed();
+        }
+        return result;
     }
 
     public static Builder builder(String clazz) {
@@ -82,7 +90,7 @@ public record SourceEntity(
         private String name = null;
         private final ImmutableMap.Builder<String, String> properties = ImmutableMap.builder();
         private final ImmutableMultimap.Builder<String, EntityConnection> connections = ImmutableMultimap.builder();
-        private SimpleBrush brush = null;
+        private final ImmutableList.Builder<SimpleBrush> brushes = ImmutableList.builder();
 
         private Builder(String clazz) {
             this.clazz = clazz;
@@ -114,12 +122,12 @@ public record SourceEntity(
         }
 
         public Builder brush(SimpleBrush brush) {
-            this.brush = brush;
+            this.brushes.add(brush);
             return this;
         }
 
         public SourceEntity build() {
-            return new SourceEntity(clazz, origin, angles, name, properties.build(), connections.build(), brush);
+            return new SourceEntity(clazz, origin, angles, name, properties.build(), connections.build(), brushes.build());
         }
     }
 }
@@ -3,48 +3,118 @@ package io.github.gaming32.mc2p2.vmf;
 import com.google.common.collect.ImmutableList;
 import net.platinumdigitalgroup.jvdf.VDFNode;
 
+import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
 
 public record SourceMap(
     String skybox,
     List<SimpleBrush> brushes,
     List<SourceEntity> entities
 ) {
+    private static final int PARALLEL_BATCH_SIZE = 256;
+    private static final int BATCHES_PER_THREAD = 4;
+
     public VDFNode toVmf() {
-        final VDFNode result = new VDFNode();
+        final VmfTreeSink sink = new VmfTreeSink();
+        writeVmf(sink);
+        return sink.root();
+    }
+
+    /**
+     * Writes the map one node at a time, so that {@link VmfWriterSink} never has more than one brush in memory.
+     */
+    public void writeVmf(VmfSink sink) {
         int id = 1;
-        result.put("visgroups", new VDFNode());
-        {
-            final VDFNode world = new VDFNode();
-            result.put("world", world);
-            world.put("id", id++);
-            world.put("mapversion", "0");
-            world.put("classname", "worldspawn");
-            world.put("skyname", skybox);
-            world.put("maxpropscreenwidth", "-1");
-            world.put("detailvbsp", "detail.vbsp");
-            world.put("detailmaterial", "detail/detailsprites");
-            world.put("maxblobcount", "250");
-            for (final SimpleBrush brush : brushes) {
-                world.put("solid", brush.toVmf(id));
-                id += brush.idsUsed();
-            }
+        writeHeader(sink, id++);
+        for (final SimpleBrush brush : brushes) {
+            sink.beginNode("solid");
+            brush.writeVmf(sink, id);
+            sink.endNode();
+            id += brush.idsUsed();
         }
+        sink.endNode();
         for (final SourceEntity entity : entities) {
-            result.put("entity", entity.toVmf(id));
+            sink.beginNode("entity");
+            entity.writeVmf(sink, id);
+            sink.endNode();
             id += entity.idsUsed();
         }
-        {
-            final VDFNode cameras = new VDFNode();
-            result.put("cameras", cameras);
-            cameras.put("activecamera", "-1");
+        writeFooter(sink);
+    }
+
+    /**
+     * Writes the map as text, rendering brushes and entities in parallel. The output is the same as
+     * {@link #writeVmf(VmfSink)} with a {@link VmfWriterSink}. Only a few batches per thread are kept in memory at once.
+     */
+    public void writeVmf(Appendable writer) throws IOException {
+        final VmfWriterSink sink = new VmfWriterSink(writer);
+        int id = 1;
+        writeHeader(sink, id++);
+        id = writeParallel(writer, brushes, "solid", 1, id);
+        sink.endNode();
+        writeParallel(writer, entities, "entity", 0, id);
+        writeFooter(sink);
+    }
+
+    private void writeHeader(VmfSink sink, int worldId) {
+        sink.beginNode("visgroups");
+        sink.endNode();
+        sink.beginNode("world");
+        sink.value("id", worldId);
+        sink.value("mapversion", "0");
+        sink.value("classname", "worldspawn");
+        sink.value("skyname", skybox);
+        sink.value("maxpropscreenwidth", "-1");
+        sink.value("detailvbsp", "detail.vbsp");
+        sink.value("detailmaterial", "detail/detailsprites");
+        sink.value("maxblobcount", "250");
+    }
+
+    private static void writeFooter(VmfSink sink) {
+        sink.beginNode("cameras");
+        sink.value("activecamera", "-1");
+        sink.endNode();
+        sink.beginNode("cordons");
+        sink.value("active", "0");
+        sink.endNode();
+    }
+
+    /**
+     * @return The first ID after {@code objects}
+     */
+    private static int writeParallel(
+        Appendable writer, List<? extends ToVmfWithId> objects, String key, int depth, int firstId
+    ) throws IOException {
+        // The ID ranges are known up front, so every batch can be rendered independently
+        final int[] ids = new int[objects.size() + 1];
+        ids[0] = firstId;
+        for (int i = 0; i < objects.size(); i++) {
+            ids[i + 1] = ids[i] + objects.get(i).idsUsed();
         }
-        {
-            final VDFNode cordons = new VDFNode();
-            result.put("cordons", cordons);
-            cordons.put("active", "0");
+        final int batches = (objects.size() + PARALLEL_BATCH_SIZE - 1) / PARALLEL_BATCH_SIZE;
+        final int window = ForkJoinPool.getCommonPoolParallelism() * BATCHES_PER_THREAD;
+        for (int start = 0; start < batches; start += window) {
+            final List<String> chunks = IntStream.range(start, Math.min(start + window, batches))
+                .parallel()
+                .mapToObj(batch -> {
+                    final StringBuilder result = new StringBuilder();
+                    final VmfWriterSink sink = new VmfWriterSink(result, depth);
+                    final int end = Math.min((batch + 1) * PARALLEL_BATCH_SIZE, objects.size());
+                    for (int i = batch * PARALLEL_BATCH_SIZE; i < end; i++) {
+                        sink.beginNode(key);
+                        objects.get(i).writeVmf(sink, ids[i]);
+                        sink.endNode();
+                    }
+                    return result.toString();
+                })
+                .toList();
+            for (final String chunk : chunks) {
+                writer.append(chunk);
+            }
         }
-        return result;
+        return ids[objects.size()];
     }
 
     public static Builder builder() {
@@ -6,20 +6,23 @@ import net.minecraft.world.level.levelgen.structure.BoundingBox;
 import net.minecraft.world.phys.AABB;
 import net.minecraft.world.phys.Vec3;
 
-import java.text.DecimalFormat;
-import java.text.DecimalFormatSymbols;
-import java.util.Locale;
-
 public class SourceUtil {
-    public static final DecimalFormat DEC_FORMAT = new DecimalFormat("#.###", DecimalFormatSymbols.getInstance(Locale.ROOT));
-
     public static String getVectorString(Vec3 vec) {
-        return DEC_FORMAT.format(vec.x) + ' ' + DEC_FORMAT.format(vec.z) + ' ' + DEC_FORMAT.format(vec.y);
+        return appendVector(new StringBuilder(24), vec).toString();
+    }
+
+    public static StringBuilder appendVector(StringBuilder out, Vec3 vec) {
+        FixedDecimalFormat.append(out, vec.x).append(' ');
+        FixedDecimalFormat.append(out, vec.z).append(' ');
+        return FixedDecimalFormat.append(out, vec.y);
     }
 
     // Y is up only for rotations, because Source
     public static String getRotationString(Vec3 vec) {
-        return DEC_FORMAT.format(vec.x) + ' ' + DEC_FORMAT.format(vec.y) + ' ' + DEC_FORMAT.format(vec.z);
+        final StringBuilder result = new StringBuilder(24);
+        FixedDecimalFormat.append(result, vec.x).append(' ');
+        FixedDecimalFormat.append(result, vec.y).append(' ');
+        return FixedDecimalFormat.append(result, vec.z).toString();
     }
 
     public static Vec3 transform(AABB bounds, Vec3 pos) {
@@ -30,6 +33,17 @@ public class SourceUtil {
         );
     }
 
+    /**
+     * The inverse of {@link #transform(AABB, Vec3)}.
+     */
+    public static Vec3 untransform(AABB bounds, Vec3 pos) {
+        return new Vec3(
+            bounds.maxX - pos.x / 64,
+            pos.y / 64 + bounds.minY,
+            pos.z / 64 + bounds.minZ
+        );
+    }
+
     public static BlockPos transform(BoundingBox bounds, BlockPos pos) {
         return new BlockPos(
             (bounds.maxX() - pos.getX()) * 64,
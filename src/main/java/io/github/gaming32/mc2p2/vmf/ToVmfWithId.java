@@ -3,7 +3,16 @@ package io.github.gaming32.mc2p2.vmf;
 import net.platinumdigitalgroup.jvdf.VDFNode;
 
 public interface ToVmfWithId {
-    VDFNode toVmf(int id);
+    /**
+     * Writes the contents of this object's node. The caller begins and ends the node itself.
+     */
+    void writeVmf(VmfSink sink, int id);
+
+    default VDFNode toVmf(int id) {
+        final VmfTreeSink sink = new VmfTreeSink();
+        writeVmf(sink, id);
+        return sink.root();
+    }
 
     int idsUsed();
 }
@@ -0,0 +1,99 @@
+package io.github.gaming32.mc2p2.vmf;
+
+import io.github.gaming32.mc2p2.util.MC2P2Util;
+import net.minecraft.world.phys.Vec3;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * Writes VMFs without touching them when the output hasn't changed. The map is hashed while it's written to a temporary
+ * file, which is only moved over the VMF if the hash differs from the one stored next to it. The move replaces the VMF
+ * in one go, so Hammer or a running compile never sees a half-written file.
+ */
+public class VmfFile {
+    /**
+     * @param digest The hex SHA-256 of the VMF.
+     * @param changed Whether the VMF was replaced.
+     */
+    public record Written(String digest, boolean changed) {
+    }
+
+    public static Written write(SourceMap map, Path path) throws IOException {
+        final MessageDigest digest = MC2P2Util.createSha256();
+        final Path tempPath = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+        try {
+            try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+                new DigestOutputStream(Files.newOutputStream(tempPath), digest), StandardCharsets.UTF_8
+            ))) {
+                map.writeVmf(writer);
+            }
+            final String hex = HexFormat.of().formatHex(digest.digest());
+            if (hex.equals(readDigest(path))) {
+                return new Written(hex, false);
+            }
+            try {
+                Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+            Files.writeString(digestPath(path), hex, StandardCharsets.UTF_8);
+            return new Written(hex, true);
+        } finally {
+            Files.deleteIfExists(tempPath);
+        }
+    }
+
+    /**
+     * Writes the leak path of the VMF at {@code path} as a pointfile that Hammer can load, or deletes the old pointfile
+     * if the map doesn't leak anymore.
+     * @param leak The points of the path in Source units, or {@code null} if the map doesn't leak
+     */
+    public static void writePointfile(Path path, @Nullable List<Vec3> leak) throws IOException {
+        final String fileName = path.getFileName().toString();
+        final Path pointfilePath = path.resolveSibling(
+            (fileName.endsWith(".vmf") ? fileName.substring(0, fileName.length() - 4) : fileName) + ".lin"
+        );
+        if (leak == null) {
+            Files.deleteIfExists(pointfilePath);
+            return;
+        }
+        final StringBuilder result = new StringBuilder();
+        for (final Vec3 point : leak) {
+            SourceUtil.appendVector(result, point).append('\n');
+        }
+        Files.writeString(pointfilePath, result, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return The stored hash of the VMF, or {@code null} if there is none or the VMF was modified after it was stored
+     */
+    @Nullable
+    private static String readDigest(Path path) throws IOException {
+        final Path digestPath = digestPath(path);
+        if (!Files.isRegularFile(path) || !Files.isRegularFile(digestPath)) {
+            return null;
+        }
+        // Saving the map in Hammer makes it newer than the hash
+        if (Files.getLastModifiedTime(path).compareTo(Files.getLastModifiedTime(digestPath)) > 0) {
+            return null;
+        }
+        return Files.readString(digestPath, StandardCharsets.UTF_8).strip();
+    }
+
+    private static Path digestPath(Path path) {
+        return path.resolveSibling(path.getFileName() + ".sha256");
+    }
+}
@@ -0,0 +1,17 @@
+package io.github.gaming32.mc2p2.vmf;
+
+/**
+ * Receives the key/value pairs of a VMF document in order. Repeated keys in the same node have to be written one after
+ * another, since {@link net.platinumdigitalgroup.jvdf.VDFNode} groups them at the first one.
+ */
+public interface VmfSink {
+    void value(String key, String value);
+
+    default void value(String key, int value) {
+        value(key, Integer.toString(value));
+    }
+
+    void beginNode(String key);
+
+    void endNode();
+}
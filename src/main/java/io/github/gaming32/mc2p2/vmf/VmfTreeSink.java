@@ -0,0 +1,42 @@
+package io.github.gaming32.mc2p2.vmf;
+
+import net.platinumdigitalgroup.jvdf.VDFNode;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Collects a VMF document into a {@link VDFNode} tree.
+ */
+public final class VmfTreeSink implements VmfSink {
+    private final VDFNode root = new VDFNode();
+    private final Deque<VDFNode> stack = new ArrayDeque<>();
+
+    public VmfTreeSink() {
+        stack.push(root);
+    }
+
+    public VDFNode root() {
+        return root;
+    }
+
+    @Override
+    public void value(String key, String value) {
+        stack.element().put(key, value);
+    }
+
+    @Override
+    public void beginNode(String key) {
+        final VDFNode node = new VDFNode();
+        stack.element().put(key, node);
+        stack.push(node);
+    }
+
+    @Override
+    public void endNode() {
+        if (stack.size() == 1) {
+            throw new IllegalStateException("No node to end");
+        }
+        stack.pop();
+    }
+}
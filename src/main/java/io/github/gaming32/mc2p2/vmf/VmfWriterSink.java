@@ -0,0 +1,77 @@
+package io.github.gaming32.mc2p2.vmf;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Writes a VMF document straight to an {@link Appendable}, in the same format as
+ * {@link net.platinumdigitalgroup.jvdf.VDFWriter#write(net.platinumdigitalgroup.jvdf.VDFNode, boolean) VDFWriter}
+ * with {@code newLineOnNode}. Nothing is buffered here, so wrap writers in a {@link java.io.BufferedWriter}.
+ */
+public final class VmfWriterSink implements VmfSink {
+    private static final String INDENT = "    ";
+
+    private final Appendable writer;
+    private int depth;
+
+    public VmfWriterSink(Appendable writer) {
+        this(writer, 0);
+    }
+
+    /**
+     * @param depth The nesting depth to start at, for writing part of a document.
+     */
+    public VmfWriterSink(Appendable writer, int depth) {
+        this.writer = writer;
+        this.depth = depth;
+    }
+
+    @Override
+    public void value(String key, String value) {
+        try {
+            indent();
+            writer.append('"');
+            writer.append(key);
+            writer.append("\" \"");
+            writer.append(value);
+            writer.append("\"\n");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void beginNode(String key) {
+        try {
+            indent();
+            writer.append('"');
+            writer.append(key);
+            writer.append("\" \n");
+            indent();
+            writer.append("{\n");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        depth++;
+    }
+
+    @Override
+    public void endNode() {
+        if (depth == 0) {
+            throw new IllegalStateException("No node to end");
+        }
+        depth--;
+        try {
+            indent();
+            writer.append("}\n");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void indent() throws IOException {
+        for (int i = 0; i < depth; i++) {
+            writer.append(INDENT);
+        }
+    }
+}
@@ -17,9 +17,18 @@ limitations under the License.
 package net.platinumdigitalgroup.jvdf;
 
 import java.awt.*;
+import java.io.ObjectStreamException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 
 /**
  * An iterable tree structure that represents a set of key-value pairs in a VDF document.
@@ -27,6 +36,18 @@ import java.util.Map;
  */
 public class VDFNode extends LinkedHashMap<String, Object[]> {
 
+    /**
+     * Buffers for keys that had values appended to them. These have spare capacity so that appending is amortized O(1).
+     * A buffer is kept after its values are copied into the map, and refilled from the map's array on the next append,
+     * since that array may have been replaced or changed in place since.
+     */
+    private transient Map<String, GrowableValues> growing;
+    /**
+     * The buffers with appended values that aren't in the map yet. Every method other than {@link #put(String, Object)}
+     * calls {@link #normalize()} first, so the map is up to date whenever it's used.
+     */
+    private transient List<GrowableValues> pending;
+
     /**
      * Puts a key/value pair into the map, or push it to the back of the multimap
      * @param key the key of the value
@@ -40,17 +61,201 @@ public class VDFNode extends LinkedHashMap<String, Object[]> {
         if (!(value instanceof String) && !(value instanceof VDFNode)) {
             throw new IllegalArgumentException("VDFNode value must be String or VDFNode");
         }
-        Object[] values = this.get(key);
+        Object[] values = super.get(key);
         if(values == null) {
-            this.put(key, new Object[]{ value });
-        } else {
-            Object[] appendTo = Arrays.copyOf(values, values.length + 1);
-            appendTo[values.length] = value;
-            this.put(key, appendTo);
+            super.put(key, new Object[]{ value });
+            return value;
+        }
+        if(growing == null) {
+            growing = new HashMap<>();
+            pending = new ArrayList<>();
+        }
+        GrowableValues growable = growing.get(key);
+        if(growable == null) {
+            growable = new GrowableValues(key);
+            growing.put(key, growable);
         }
+        if(!growable.pending) {
+            growable.reset(values);
+            growable.pending = true;
+            pending.add(growable);
+        }
+        growable.add(value);
         return value;
     }
 
+    /**
+     * Copies appended values into the map as exactly sized arrays.
+     */
+    private void normalize() {
+        if(pending == null || pending.isEmpty())
+            return;
+        for(GrowableValues growable : pending) {
+            growable.pending = false;
+            super.put(growable.key, growable.toArray());
+        }
+        pending.clear();
+    }
+
+    @Override
+    public Object[] put(String key, Object[] value) {
+        normalize();
+        return super.put(key, value);
+    }
+
+    @Override
+    public void putAll(Map<? extends String, ? extends Object[]> m) {
+        normalize();
+        super.putAll(m);
+    }
+
+    @Override
+    public Object[] putIfAbsent(String key, Object[] value) {
+        normalize();
+        return super.putIfAbsent(key, value);
+    }
+
+    @Override
+    public Object[] replace(String key, Object[] value) {
+        normalize();
+        return super.replace(key, value);
+    }
+
+    @Override
+    public boolean replace(String key, Object[] oldValue, Object[] newValue) {
+        normalize();
+        return super.replace(key, oldValue, newValue);
+    }
+
+    @Override
+    public void replaceAll(BiFunction<? super String, ? super Object[], ? extends Object[]> function) {
+        normalize();
+        super.replaceAll(function);
+    }
+
+    @Override
+    public Object[] compute(String key, BiFunction<? super String, ? super Object[], ? extends Object[]> remappingFunction) {
+        normalize();
+        return super.compute(key, remappingFunction);
+    }
+
+    @Override
+    public Object[] computeIfPresent(String key, BiFunction<? super String, ? super Object[], ? extends Object[]> remappingFunction) {
+        normalize();
+        return super.computeIfPresent(key, remappingFunction);
+    }
+
+    @Override
+    public Object[] merge(String key, Object[] value, BiFunction<? super Object[], ? super Object[], ? extends Object[]> remappingFunction) {
+        normalize();
+        return super.merge(key, value, remappingFunction);
+    }
+
+    @Override
+    public Object[] get(Object key) {
+        normalize();
+        return super.get(key);
+    }
+
+    @Override
+    public Object[] getOrDefault(Object key, Object[] defaultValue) {
+        normalize();
+        return super.getOrDefault(key, defaultValue);
+    }
+
+    @Override
+    public Object[] remove(Object key) {
+        normalize();
+        if(growing != null)
+            growing.remove(key);
+        return super.remove(key);
+    }
+
+    @Override
+    public Object[] computeIfAbsent(String key, Function<? super String, ? extends Object[]> mappingFunction) {
+        normalize();
+        return super.computeIfAbsent(key, mappingFunction);
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        normalize();
+        return super.remove(key, value);
+    }
+
+    @Override
+    public void clear() {
+        if(growing != null) {
+            growing.clear();
+            pending.clear();
+        }
+        super.clear();
+    }
+
+    @Override
+    public Set<String> keySet() {
+        normalize();
+        return super.keySet();
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object[]>> entrySet() {
+        normalize();
+        return super.entrySet();
+    }
+
+    @Override
+    public Collection<Object[]> values() {
+        normalize();
+        return super.values();
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super String, ? super Object[]> action) {
+        normalize();
+        super.forEach(action);
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        normalize();
+        return super.containsValue(value);
+    }
+
+    @Override
+    public Object clone() {
+        normalize();
+        VDFNode result = (VDFNode)super.clone();
+        result.growing = null;
+        result.pending = null;
+        return result;
+    }
+
+    private Object writeReplace() throws ObjectStreamException {
+        normalize();
+        return this;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        normalize();
+        if(o instanceof VDFNode other)
+            other.normalize();
+        return super.equals(o);
+    }
+
+    @Override
+    public int hashCode() {
+        normalize();
+        return super.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        normalize();
+        return super.toString();
+    }
+
     /**
      * Returns the number of values that correspond to the specified key.
      * @param key the key name to get the value count for
@@ -262,5 +467,39 @@ public class VDFNode extends LinkedHashMap<String, Object[]> {
         return reduce(true);
     }
 
+    private static final class GrowableValues {
+        final String key;
+        private Object[] values = new Object[0];
+        private int size;
+        boolean pending;
+
+        GrowableValues(String key) {
+            this.key = key;
+        }
+
+        /**
+         * Replaces the values with {@code initial}, keeping the capacity if there's room for another value.
+         */
+        void reset(Object[] initial) {
+            if(initial.length >= values.length) {
+                values = Arrays.copyOf(initial, Math.max(4, initial.length * 2));
+            } else {
+                System.arraycopy(initial, 0, values, 0, initial.length);
+                if(size > initial.length)
+                    Arrays.fill(values, initial.length, size, null);
+            }
+            size = initial.length;
+        }
+
+        void add(Object value) {
+            if(size == values.length)
+                values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+
+        Object[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
 
 }